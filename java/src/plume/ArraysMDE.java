@@ -41,10 +41,20 @@ public final class ArraysMDE {
   public static int min(int[] a) {
     if (a.length == 0)
       throw new ArrayIndexOutOfBoundsException("Empty array passed to min(int[])");
-    int result = a[0];
-    for (int i=1; i<a.length; i++)
-      result = Math.min(result, a[i]);
-    return result;
+    // Four independent accumulators, so that successive iterations need
+    // not wait for one another.  Math.min is associative and commutative,
+    // so the result is unchanged.
+    int r0 = a[0], r1 = a[0], r2 = a[0], r3 = a[0];
+    int i = 1;
+    for ( ; i<a.length-3; i+=4) {
+      r0 = Math.min(r0, a[i]);
+      r1 = Math.min(r1, a[i+1]);
+      r2 = Math.min(r2, a[i+2]);
+      r3 = Math.min(r3, a[i+3]);
+    }
+    for ( ; i<a.length; i++)
+      r0 = Math.min(r0, a[i]);
+    return Math.min(Math.min(r0, r1), Math.min(r2, r3));
   }
 
   /**
@@ -146,10 +156,18 @@ public final class ArraysMDE {
   public static int max(int[] a) {
     if (a.length == 0)
       throw new ArrayIndexOutOfBoundsException("Empty array passed to max(int[])");
-    int result = a[0];
-    for (int i=1; i<a.length; i++)
-      result = Math.max(result, a[i]);
-    return result;
+    // Independent accumulators; see min(int[]).
+    int r0 = a[0], r1 = a[0], r2 = a[0], r3 = a[0];
+    int i = 1;
+    for ( ; i<a.length-3; i+=4) {
+      r0 = Math.max(r0, a[i]);
+      r1 = Math.max(r1, a[i+1]);
+      r2 = Math.max(r2, a[i+2]);
+      r3 = Math.max(r3, a[i+3]);
+    }
+    for ( ; i<a.length; i++)
+      r0 = Math.max(r0, a[i]);
+    return Math.max(Math.max(r0, r1), Math.max(r2, r3));
   }
 
   /**
@@ -314,11 +332,21 @@ public final class ArraysMDE {
    * @return the sum of an array of integers
    */
   public static int sum(int[] a) {
-    int sum = 0;
-    for (int i = 0; i < a.length; i++) {
-      sum += a[i];
-    }
-    return sum;
+    // Integer addition (even with overflow) is associative, so partial
+    // sums may be accumulated independently.  This is not true of
+    // floating-point addition, so sum(double[]) adds in order.
+    int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for ( ; i < a.length-3; i+=4) {
+      s0 += a[i];
+      s1 += a[i+1];
+      s2 += a[i+2];
+      s3 += a[i+3];
+    }
+    for ( ; i < a.length; i++) {
+      s0 += a[i];
+    }
+    return (s0 + s1) + (s2 + s3);
   }
 
   /**
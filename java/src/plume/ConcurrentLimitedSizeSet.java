@@ -0,0 +1,200 @@
+package plume;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A thread-safe version of {@link LimitedSizeSet}:  it stores up to some
+ * maximum number of unique values, at which point its rep is nulled, in
+ * order to save space.  Any number of threads may add values at once,
+ * without locking.
+ * <p>
+ *
+ * The values are kept in an open-addressed table with room for twice
+ * max_values, whose slots are filled by compare-and-set, so a value is
+ * added at most once even if several threads add it at the same time.
+ * Once more than max_values distinct values have been added, the table is
+ * discarded and later additions do nothing.
+ * <p>
+ *
+ * Unlike LimitedSizeSet, this set does not support overflow sketches
+ * ({@link LimitedSizeSet#enableOverflowSketch(int)}):  once it overflows,
+ * only its size is known.  Adding a rep-nulled LimitedSizeSet overflows
+ * this set, discarding any sketch that the argument has, and
+ * toLimitedSizeSet returns a set without a sketch.  To aggregate
+ * per-thread sets with sketches, use
+ * {@link LimitedSizeSet#merge(int, java.util.List, java.util.concurrent.ForkJoinPool)},
+ * which merges them in parallel.
+ *
+ * @param <T> the type of elements
+ * @see LimitedSizeSet
+ **/
+public final class ConcurrentLimitedSizeSet<T> {
+
+  /** Stands for the null element, since a null slot is empty. */
+  private static final Object NULL_ELT = new Object();
+
+  private final int max_values;
+  // Null once more than max_values distinct values have been added.
+  private volatile /*@Nullable*/ AtomicReferenceArray<Object> slots;
+  // The number of distinct values added, up to max_values+1.
+  private final AtomicInteger num_values = new AtomicInteger();
+
+  /**
+   * Creates a new, empty set.
+   * @param max_values the maximum number of distinct values to store
+   **/
+  public ConcurrentLimitedSizeSet(int max_values) {
+    assert max_values > 0;
+    this.max_values = max_values;
+    int capacity = 1;
+    while (capacity < 2 * max_values) {
+      capacity <<= 1;
+    }
+    slots = new AtomicReferenceArray<Object>(capacity);
+  }
+
+  /*@Pure*/ private static int indexFor(Object elt, int mask) {
+    int h = elt.hashCode() * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /**
+   * Adds a value to the set.  Safe to call from any number of threads.
+   * @param elt the value to add
+   **/
+  public void add(/*@Nullable*/ T elt) {
+    AtomicReferenceArray<Object> s = slots;
+    if (s == null) {
+      return;
+    }
+    Object e = (elt == null) ? NULL_ELT : elt;
+    int mask = s.length() - 1;
+    int i = indexFor(e, mask);
+    for (int probes = 0; probes <= mask; probes++, i = (i + 1) & mask) {
+      Object current = s.get(i);
+      if (current == null) {
+        if (s.compareAndSet(i, null, e)) {
+          if (num_values.incrementAndGet() > max_values) {
+            overflow();
+          }
+          return;
+        }
+        current = s.get(i);     // another thread filled the slot first
+      }
+      if (current == e || current.equals(e)) {
+        return;
+      }
+    }
+    // Concurrent additions have filled the whole table.
+    overflow();
+  }
+
+  private void overflow() {
+    // Bump the count first, so that a thread that sees the rep nulled
+    // also sees a size of max_values+1.
+    int n;
+    while ((n = num_values.get()) <= max_values
+           && ! num_values.compareAndSet(n, max_values + 1)) {
+      // retry
+    }
+    slots = null;
+  }
+
+  /**
+   * Adds every element of s to this set.  If s is rep-nulled, so is this;
+   * s's overflow sketch, if any, is not used.
+   * @param s the set whose elements to add
+   **/
+  public void addAll(LimitedSizeSet<? extends T> s) {
+    if (s.repNulled()) {
+      overflow();
+      return;
+    }
+    for (int i=0; i < s.size(); i++) {
+      assert s.values != null : "@AssumeAssertion(nullness): not rep-nulled";
+      @SuppressWarnings("nullness") // used portion of array
+      T elt = s.values[i];
+      add(elt);
+    }
+  }
+
+  /**
+   * Returns true if the set contains the value.
+   * @param elt the value to look for
+   * @return true if the set contains elt
+   * @throws UnsupportedOperationException if the rep is nulled
+   **/
+  @SuppressWarnings("deterministic") // pure wrt equals() but not ==: throws a new exception
+  /*@Pure*/
+  public boolean contains(/*@Nullable*/ Object elt) {
+    AtomicReferenceArray<Object> s = slots;
+    if (s == null) {
+      throw new UnsupportedOperationException();
+    }
+    Object e = (elt == null) ? NULL_ELT : elt;
+    int mask = s.length() - 1;
+    int i = indexFor(e, mask);
+    for (int probes = 0; probes <= mask; probes++, i = (i + 1) & mask) {
+      Object current = s.get(i);
+      if (current == null) {
+        return false;
+      }
+      if (current == e || current.equals(e)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A lower bound on the number of elements in the set:  the number of
+   * distinct elements added, or max_values+1, whichever is less.
+   * @return a lower bound on the number of elements added to the set
+   **/
+  /*@Pure*/
+  public int size() {
+    return Math.min(num_values.get(), max_values + 1);
+  }
+
+  /*@Pure*/
+  public boolean repNulled() {
+    return slots == null;
+  }
+
+  /**
+   * Returns a LimitedSizeSet with the same max_values and the elements
+   * that this set contains.  If other threads are adding to this set,
+   * the result may include only some of the values they add.  The
+   * result has no overflow sketch.
+   * @return a LimitedSizeSet with the elements of this
+   **/
+  public LimitedSizeSet<T> toLimitedSizeSet() {
+    LimitedSizeSet<T> result = new LimitedSizeSet<T>(max_values);
+    AtomicReferenceArray<Object> s = slots;
+    if (s == null) {
+      result.values = null;
+      result.num_values = max_values + 1;
+      return result;
+    }
+    for (int i=0; i < s.length(); i++) {
+      Object e = s.get(i);
+      if (e != null) {
+        @SuppressWarnings("unchecked")
+        T elt = (e == NULL_ELT) ? null : (T) e;
+        result.add(elt);
+      }
+    }
+    return result;
+  }
+
+  /*@SideEffectFree*/ public String toString() {
+    return toLimitedSizeSet().toString();
+  }
+
+}
@@ -0,0 +1,143 @@
+// ConcurrentMultiRandSelector.java
+package plume;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A thread-safe version of {@link MultiRandSelector}:  any number of
+ * threads may accept elements at once.
+ *
+ * <p>Buckets are found in a ConcurrentHashMap, so looking up an existing
+ * bucket takes no lock, and creating a bucket locks only a stripe of the
+ * map.  Each bucket's RandomSelector is locked while it accepts an
+ * element, so threads contend only when they add to the same bucket.
+ * Each bucket has its own random number generator, seeded from the one
+ * given to the constructor, so that the buckets do not contend for it.
+ *
+ * @see MultiRandSelector
+ * @see RandomSelector
+ **/
+public class ConcurrentMultiRandSelector<T> {
+
+    private final int num_elts;
+    private final boolean coin_toss_mode;
+    private final double keep_probability;
+    private final Random seed;
+    private final Partitioner<T,T> eq;
+
+    private final ConcurrentMap<T,RandomSelector<T>> map;
+
+    /** @param num_elts the number of elements to select from each bucket
+     *  @param eq partioner that determines how to partition the objects from
+     *  the iteration.
+     */
+    public ConcurrentMultiRandSelector (int num_elts, Partitioner<T,T> eq) {
+        this (num_elts, new Random(), eq);
+    }
+
+    public ConcurrentMultiRandSelector (double keep_prob, Partitioner<T,T> eq) {
+        this (keep_prob, new Random(), eq);
+    }
+
+    public ConcurrentMultiRandSelector (int num_elts, Random r,
+                                        Partitioner<T,T> eq) {
+        coin_toss_mode = false;
+        this.num_elts = num_elts;
+        this.keep_probability = -1.0;
+        seed = r;
+        this.eq = eq;
+        map = new ConcurrentHashMap<T,RandomSelector<T>>();
+    }
+
+    public ConcurrentMultiRandSelector (double keep_prob, Random r,
+                                        Partitioner<T,T> eq) {
+        this.keep_probability = keep_prob;
+        coin_toss_mode = true;
+        this.num_elts = -1;
+        seed = r;
+        this.eq = eq;
+        map = new ConcurrentHashMap<T,RandomSelector<T>>();
+    }
+
+    public void acceptIter (Iterator<T> iter) {
+        while (iter.hasNext()) {
+            accept (iter.next());
+        }
+    }
+
+    /** Accepts an element.  Safe to call from any number of threads.
+     * @param next value to be added to this selector
+     */
+    public void accept (T next) {
+        RandomSelector<T> delegation = selectorFor (next);
+        if (delegation != null) {
+            synchronized (delegation) {
+                delegation.accept (next);
+            }
+        }
+    }
+
+    /** Accepts an element with the given weight.  Safe to call from any
+     * number of threads.
+     * @param next value to be added to this selector
+     * @param weight the weight of next, which must be non-negative
+     * @see MultiRandSelector#accept(Object, double)
+     */
+    public void accept (T next, double weight) {
+        RandomSelector<T> delegation = selectorFor (next);
+        if (delegation != null) {
+            synchronized (delegation) {
+                delegation.accept (next, weight);
+            }
+        }
+    }
+
+    /** Returns the selector for next's bucket, creating it if necessary,
+     * or null if next belongs to no bucket. */
+    private /*@Nullable*/ RandomSelector<T> selectorFor (T next) {
+        T equivClass = eq.assignToBucket (next);
+        if (equivClass == null)
+            return null;
+        RandomSelector<T> delegation = map.get (equivClass);
+        if (delegation == null) {
+            Random r = new Random (seed.nextLong());
+            delegation = (coin_toss_mode) ?
+                new RandomSelector<T> (keep_probability, r) :
+                new RandomSelector<T> (num_elts, r);
+            RandomSelector<T> existing = map.putIfAbsent (equivClass, delegation);
+            if (existing != null) {
+                delegation = existing;
+            }
+        }
+        return delegation;
+    }
+
+    /** Returns an unmodifiable view of the buckets.  The map may be read
+     * while other threads accept elements, but a selector in it must be
+     * locked (by synchronizing on it) while it is used.
+     * @return a map from each bucket to its selector
+     */
+    public Map<T,RandomSelector<T>> values () {
+        return Collections.unmodifiableMap (map);
+    }
+
+    /** Returns an iterator of all objects selected.  If other threads
+     * are accepting elements, the result reflects each bucket at some
+     * point during the call.
+     * @return an iterator of all objects selected. */
+    public Iterator<T> valuesIter() {
+        ArrayList<T> ret = new ArrayList<T>();
+        for (RandomSelector<T> rs : map.values()) {
+            synchronized (rs) {
+                ret.addAll (rs.getValues());
+            }
+        }
+        return ret.iterator();
+    }
+
+}
@@ -0,0 +1,342 @@
+package plume;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A thread-safe version of {@link WeakHasherMap}:  a hashtable-based map
+ * with weak keys, whose keys are hashed and compared by a {@link Hasher}.
+ * It is implemented as a {@link ConcurrentHashMap} that maps weak
+ * references to the keys to the values, so it has the same concurrency
+ * properties as ConcurrentHashMap:
+ * <ul>
+ *   <li>Lookups (<code>get</code> and <code>containsKey</code>) take no
+ *   locks and do not modify the map, so they scale to many threads.</li>
+ *   <li>Updates, including the atomic {@link #putIfAbsent}, lock only a
+ *   small part of the table.</li>
+ *   <li>Iterators are weakly consistent:  they never throw
+ *   ConcurrentModificationException.</li>
+ * </ul>
+ * <p>
+ *
+ * An entry is removed after the garbage collector clears its key.  The
+ * removal is done by whichever thread next performs an update or calls
+ * {@link #expungeStaleEntries()}; any number of threads may do so at
+ * once.  As for WeakHasherMap, the garbage collector may therefore
+ * appear to remove entries at any time.
+ * <p>
+ *
+ * Unlike WeakHasherMap, this map permits neither null keys nor null
+ * values.  Values are held strongly, so a value must not refer to its own
+ * key.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see WeakHasherMap
+ **/
+public final class ConcurrentWeakHasherMap<K,V> extends AbstractMap<K,V> implements ConcurrentMap<K,V> {
+
+  /** The Hasher for keys, or null to use their equals and hashCode methods. */
+  private final /*@Nullable*/ Hasher hasher;
+
+  /** Maps WeakKeys (and, for lookups only, LookupKeys) to values. */
+  private final ConcurrentHashMap<Object,V> hash;
+
+  /** Reference queue for cleared WeakKeys. */
+  private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+  /**
+   * Creates a new, empty map that uses its keys' equals and hashCode
+   * methods.
+   **/
+  public ConcurrentWeakHasherMap() {
+    this(null);
+  }
+
+  /**
+   * Creates a new, empty map that uses the given hasher for hashing keys
+   * and comparing them for equality.
+   * @param hasher the Hasher to use for keys, or null to use their
+   * equals and hashCode methods
+   **/
+  public ConcurrentWeakHasherMap(/*@Nullable*/ Hasher hasher) {
+    this(16, 16, hasher);
+  }
+
+  /**
+   * Creates a new, empty map with the given sizing parameters.
+   * @param initialCapacity the initial capacity of the map
+   * @param concurrencyLevel the estimated number of threads that update
+   * the map concurrently
+   * @param hasher the Hasher to use for keys, or null to use their
+   * equals and hashCode methods
+   * @see ConcurrentHashMap#ConcurrentHashMap(int, float, int)
+   **/
+  public ConcurrentWeakHasherMap(int initialCapacity, int concurrencyLevel, /*@Nullable*/ Hasher hasher) {
+    this.hasher = hasher;
+    this.hash = new ConcurrentHashMap<Object,V>(initialCapacity, 0.75f, concurrencyLevel);
+  }
+
+  private int keyHashCode(Object key) {
+    return (hasher == null) ? key.hashCode() : hasher.hashCode(key);
+  }
+
+  private boolean keyEquals(Object key1, Object key2) {
+    return (hasher == null) ? key1.equals(key2) : hasher.equals(key1, key2);
+  }
+
+  /**
+   * A key stored in the map.  Two WeakKeys are equal if they are the same
+   * object, or if their referents are equal according to the hasher.  A
+   * WeakKey whose referent has been cleared is equal only to itself, so
+   * that the expunging thread can remove exactly its entry.
+   **/
+  private final class WeakKey extends WeakReference<K> {
+    private final int hash;
+
+    WeakKey(K key) {
+      super(key, queue);
+      this.hash = keyHashCode(key);
+    }
+
+    /*@Pure*/ public boolean equals(/*@Nullable*/ Object o) {
+      if (this == o) {
+        return true;
+      }
+      Object u = referent(o);
+      Object t = get();
+      if (t == null || u == null) {
+        return false;
+      }
+      return (t == u) || keyEquals(t, u);
+    }
+
+    /*@Pure*/ public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A key used only to look up an entry.  It holds its referent strongly
+   * and is never stored, so it need not be registered with the reference
+   * queue.
+   **/
+  private final class LookupKey {
+    private final Object key;
+    private final int hash;
+
+    LookupKey(Object key) {
+      this.key = key;
+      this.hash = keyHashCode(key);
+    }
+
+    /*@Pure*/ public boolean equals(/*@Nullable*/ Object o) {
+      Object u = referent(o);
+      return (u != null) && ((key == u) || keyEquals(key, u));
+    }
+
+    /*@Pure*/ public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** Returns the key that a WeakKey or LookupKey stands for, or null. */
+  // Uses getClass rather than instanceof because the key classes are
+  // inner classes of a generic class.
+  private /*@Nullable*/ Object referent(/*@Nullable*/ Object o) {
+    if (o == null) {
+      return null;
+    } else if (o.getClass() == WeakKey.class) {
+      @SuppressWarnings("unchecked")
+      WeakKey wk = (WeakKey) o;
+      return wk.get();
+    } else if (o.getClass() == LookupKey.class) {
+      @SuppressWarnings("unchecked")
+      LookupKey lk = (LookupKey) o;
+      return lk.key;
+    } else {
+      return null;
+    }
+  }
+
+  private LookupKey lookupKey(/*@Nullable*/ Object key) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    return new LookupKey(key);
+  }
+
+  /**
+   * Removes the entries whose keys have been garbage-collected.  Updates
+   * call this method, so clients need to call it only to reclaim space
+   * in a map that is no longer being updated.  Safe to call from any
+   * number of threads at once.
+   **/
+  @SuppressWarnings("unchecked")
+  public void expungeStaleEntries() {
+    WeakKey wk;
+    while ((wk = (WeakKey) queue.poll()) != null) { // unchecked cast
+      hash.remove(wk);
+    }
+  }
+
+  /* -- Queries; these take no locks -- */
+
+  /**
+   * Returns the number of entries in the map, including any whose keys
+   * have been garbage-collected but not yet expunged.
+   **/
+  /*@Pure*/ public int size() {
+    return hash.size();
+  }
+
+  /*@Pure*/ public boolean isEmpty() {
+    return hash.isEmpty();
+  }
+
+  /*@Pure*/ public boolean containsKey(/*@Nullable*/ Object key) {
+    return hash.containsKey(lookupKey(key));
+  }
+
+  /*@Pure*/ public /*@Nullable*/ V get(/*@Nullable*/ Object key) {
+    return hash.get(lookupKey(key));
+  }
+
+  /* -- Updates -- */
+
+  public /*@Nullable*/ V put(K key, V value) {
+    expungeStaleEntries();
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    return hash.put(new WeakKey(key), value);
+  }
+
+  public /*@Nullable*/ V putIfAbsent(K key, V value) {
+    expungeStaleEntries();
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    return hash.putIfAbsent(new WeakKey(key), value);
+  }
+
+  public /*@Nullable*/ V remove(/*@Nullable*/ Object key) {
+    expungeStaleEntries();
+    return hash.remove(lookupKey(key));
+  }
+
+  public boolean remove(/*@Nullable*/ Object key, /*@Nullable*/ Object value) {
+    expungeStaleEntries();
+    return hash.remove(lookupKey(key), value);
+  }
+
+  public boolean replace(K key, V oldValue, V newValue) {
+    expungeStaleEntries();
+    return hash.replace(lookupKey(key), oldValue, newValue);
+  }
+
+  public /*@Nullable*/ V replace(K key, V value) {
+    expungeStaleEntries();
+    return hash.replace(lookupKey(key), value);
+  }
+
+  public void clear() {
+    expungeStaleEntries();
+    hash.clear();
+  }
+
+  /* -- Views -- */
+
+  /** An entry of the map, which holds its key strongly. */
+  private final class Entry extends AbstractMap.SimpleEntry<K,V> {
+    static final long serialVersionUID = 20261015L;
+
+    private final transient Object weakKey;
+
+    Entry(Object weakKey, K key, V value) {
+      super(key, value);
+      this.weakKey = weakKey;
+    }
+
+    public V setValue(V value) {
+      hash.replace(weakKey, value);
+      return super.setValue(value);
+    }
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+    public Iterator<Map.Entry<K,V>> iterator() {
+      return new Iterator<Map.Entry<K,V>>() {
+        Iterator<Map.Entry<Object,V>> hashIterator = hash.entrySet().iterator();
+        /*@Nullable*/ Entry next = null;
+        // The entry most recently returned by next(), for remove().
+        // hashIterator may already have moved past it, in hasNext().
+        /*@Nullable*/ Entry last = null;
+
+        public boolean hasNext() {
+          while (next == null && hashIterator.hasNext()) {
+            Map.Entry<Object,V> ent = hashIterator.next();
+            @SuppressWarnings("unchecked")
+            K k = (K) referent(ent.getKey());
+            if (k == null) {
+              // Weak key has been cleared by GC
+              continue;
+            }
+            next = new Entry(ent.getKey(), k, ent.getValue());
+          }
+          return next != null;
+        }
+
+        public Map.Entry<K,V> next() {
+          if (! hasNext()) {
+            throw new NoSuchElementException();
+          }
+          Entry e = next;
+          assert e != null : "@AssumeAssertion(nullness): hasNext()";
+          next = null;
+          last = e;
+          return e;
+        }
+
+        public void remove() {
+          if (last == null) {
+            throw new IllegalStateException();
+          }
+          hash.remove(last.weakKey, last.getValue());
+          last = null;
+        }
+      };
+    }
+
+    /** Returns the number of entries, as for ConcurrentWeakHasherMap.size(). */
+    /*@Pure*/ public int size() {
+      return hash.size();
+    }
+  }
+
+  private /*@Nullable*/ Set<Map.Entry<K,V>> entrySet = null;
+
+  /**
+   * Returns a <code>Set</code> view of the mappings in this map.  The
+   * set's iterator skips entries whose keys have been garbage-collected,
+   * and is weakly consistent.
+   **/
+  /*@SideEffectFree*/ public Set<Map.Entry<K,V>> entrySet() {
+    if (entrySet == null) entrySet = new EntrySet();
+    return entrySet;
+  }
+
+}
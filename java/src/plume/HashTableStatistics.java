@@ -0,0 +1,182 @@
+package plume;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A snapshot of the health of a hash table:  how often lookups succeed,
+ * how often and for how long the table has been resized, how long its
+ * chains are, and how many entries the garbage collector has made stale.
+ * The counts are cumulative since statistics were enabled.
+ * <p>
+ *
+ * A chain-length histogram with many long chains indicates a poor hash
+ * function; many resizes indicate a table that should be created with a
+ * larger initial capacity; and large numbers of entries expunged after
+ * each garbage collection indicate churn in the keys.
+ *
+ * @see WeakHasherMap#statistics()
+ * @see WeakIdentityHashMap#statistics()
+ **/
+public final class HashTableStatistics {
+
+  private final long hits;
+  private final long misses;
+  private final int resizes;
+  private final long resizeNanos;
+  private final int[] chainLengths;
+  private final long totalExpunged;
+  private final long[] expungedPerCycle;
+  private final int size;
+  private final int capacity;
+
+  private HashTableStatistics(long hits, long misses, int resizes, long resizeNanos,
+                              int[] chainLengths, long totalExpunged, long[] expungedPerCycle,
+                              int size, int capacity) {
+    this.hits = hits;
+    this.misses = misses;
+    this.resizes = resizes;
+    this.resizeNanos = resizeNanos;
+    this.chainLengths = chainLengths;
+    this.totalExpunged = totalExpunged;
+    this.expungedPerCycle = expungedPerCycle;
+    this.size = size;
+    this.capacity = capacity;
+  }
+
+  /** @return the number of lookups that found the key */
+  /*@Pure*/ public long getHits() { return hits; }
+
+  /** @return the number of lookups that did not find the key */
+  /*@Pure*/ public long getMisses() { return misses; }
+
+  /** @return the fraction of lookups that were hits, or 0 if there were no lookups */
+  /*@Pure*/ public double getHitRate() {
+    long lookups = hits + misses;
+    return (lookups == 0) ? 0 : ((double) hits) / lookups;
+  }
+
+  /** @return the number of times the table has grown */
+  /*@Pure*/ public int getResizes() { return resizes; }
+
+  /** @return the total time spent growing the table, in nanoseconds */
+  /*@Pure*/ public long getResizeNanos() { return resizeNanos; }
+
+  /**
+   * Returns the chain-length histogram:  element i is the number of
+   * buckets that hold exactly i entries, except that the last element
+   * counts every bucket with at least that many entries.
+   * @return the chain-length histogram
+   **/
+  /*@SideEffectFree*/ public int[] getChainLengthHistogram() {
+    return chainLengths.clone();
+  }
+
+  /** @return the length of the longest chain, or the last histogram index if longer */
+  /*@Pure*/ public int getMaxChainLength() {
+    for (int i = chainLengths.length - 1; i > 0; i--) {
+      if (chainLengths[i] != 0) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  /** @return the total number of stale entries removed from the table */
+  /*@Pure*/ public long getTotalExpunged() { return totalExpunged; }
+
+  /**
+   * Returns the number of stale entries removed after each of the most
+   * recent garbage collections that cleared any keys of this table,
+   * oldest first.  The last element is for the current cycle, and may
+   * still grow.
+   * @return the number of entries expunged per garbage-collection cycle
+   **/
+  /*@SideEffectFree*/ public long[] getExpungedPerCycle() {
+    return expungedPerCycle.clone();
+  }
+
+  /** @return the number of entries in the table, including stale ones */
+  /*@Pure*/ public int getSize() { return size; }
+
+  /** @return the number of buckets in the table */
+  /*@Pure*/ public int getCapacity() { return capacity; }
+
+  /*@SideEffectFree*/ public String toString() {
+    return String.format("hits=%d misses=%d resizes=%d resizeTime=%dns size=%d capacity=%d maxChain=%d chains=%s expunged=%d perCycle=%s",
+                         hits, misses, resizes, resizeNanos, size, capacity, getMaxChainLength(),
+                         Arrays.toString(chainLengths), totalExpunged, Arrays.toString(expungedPerCycle));
+  }
+
+  /**
+   * Accumulates the statistics of one table.  A table that has
+   * statistics disabled has no Recorder, so the only cost of the
+   * instrumentation is a null test.
+   **/
+  static final class Recorder {
+    /** The number of elements of the chain-length histogram. */
+    static final int HISTOGRAM_SIZE = 9;
+    /** The number of garbage-collection cycles to remember. */
+    static final int CYCLES = 16;
+
+    long hits = 0;
+    long misses = 0;
+    int resizes = 0;
+    long resizeNanos = 0;
+    private long totalExpunged = 0;
+    // A ring buffer of the most recent cycles; current is the newest.
+    private final long[] cycles = new long[CYCLES];
+    private int current = 0;
+    private int numCycles = 0;
+    // Cleared by the garbage collector, marking the start of a new cycle.
+    private WeakReference<Object> canary = new WeakReference<Object>(new Object());
+
+    void lookup(boolean found) {
+      if (found) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+
+    void resized(long nanos) {
+      resizes++;
+      resizeNanos += nanos;
+    }
+
+    /** Records that one stale entry has been removed. */
+    void expunged() {
+      if (numCycles == 0) {
+        numCycles = 1;
+      } else if (canary.get() == null) {
+        // A garbage collection has happened since the last expunge.
+        current = (current + 1) % CYCLES;
+        cycles[current] = 0;
+        numCycles = Math.min(numCycles + 1, CYCLES);
+        canary = new WeakReference<Object>(new Object());
+      }
+      cycles[current]++;
+      totalExpunged++;
+    }
+
+    /** Adds a chain of the given length to the histogram. */
+    static void addChain(int[] histogram, int length) {
+      histogram[Math.min(length, histogram.length - 1)]++;
+    }
+
+    HashTableStatistics snapshot(int[] chainLengths, int size, int capacity) {
+      long[] perCycle = new long[numCycles];
+      for (int i = 0; i < numCycles; i++) {
+        perCycle[i] = cycles[(current - numCycles + 1 + i + CYCLES) % CYCLES];
+      }
+      return new HashTableStatistics(hits, misses, resizes, resizeNanos, chainLengths,
+                                     totalExpunged, perCycle, size, capacity);
+    }
+  }
+
+}
@@ -0,0 +1,385 @@
+package plume;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A hashtable-based map whose keys are hashed and compared by a
+ * {@link Hasher}, and held strongly.  It is the strong counterpart of
+ * {@link WeakHasherMap}.  For example, with
+ * {@link Intern#intArrayHasher()} or {@link Intern#doubleArrayHasher()},
+ * a map can be keyed by the contents of int[] or double[] arrays
+ * directly, without wrapping each array in a key object.
+ * <p>
+ *
+ * The map uses open addressing:  the table is three parallel arrays,
+ * holding the keys, their hash codes, and the values, so a mapping
+ * allocates no object at all.  A lookup probes consecutive slots of the
+ * hash code array, and calls the hasher's equals method only when the
+ * hash codes match.  Each key's hash code is computed once, when it is
+ * inserted, which matters when hashing a key is expensive.
+ * <p>
+ *
+ * Removed entries leave tombstones, which are discarded when the table
+ * is rehashed.  This class is not synchronized.  Its iterators are
+ * fail-fast.  Null keys and values are permitted; the hasher is never
+ * called on a null key.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see HasherSet
+ * @see WeakHasherMap
+ **/
+public class HasherMap<K,V> extends AbstractMap<K,V> implements Map<K,V> {
+
+  private static final int MIN_CAPACITY = 16;
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** Stands for the null key, since a null slot is empty. */
+  private static final Object NULL_KEY = new Object();
+
+  /** Occupies the slot of a removed entry. */
+  private static final Object TOMBSTONE = new Object();
+
+  /** The Hasher for keys, or null to use their equals and hashCode methods. */
+  private final /*@Nullable*/ Hasher hasher;
+
+  // A null element of keys is an empty slot.
+  private /*@Nullable*/ Object[] keys;
+  private int[] hashes;
+  private /*@Nullable*/ Object[] vals;
+  // capacity == 1 << (32 - shift)
+  private int shift;
+
+  private int size = 0;
+  private int tombstones = 0;
+  private int modCount = 0;
+
+  /**
+   * Creates a new, empty map that uses its keys' equals and hashCode
+   * methods.
+   **/
+  public HasherMap() {
+    this(MIN_CAPACITY, null);
+  }
+
+  /**
+   * Creates a new, empty map that uses the given hasher for hashing keys
+   * and comparing them for equality.
+   * @param hasher the Hasher to use for keys, or null to use their
+   * equals and hashCode methods
+   **/
+  public HasherMap(/*@Nullable*/ Hasher hasher) {
+    this(MIN_CAPACITY, hasher);
+  }
+
+  /**
+   * Creates a new, empty map that can hold the given number of mappings
+   * without rehashing, and that uses the given hasher for keys.
+   * @param expectedSize the expected number of mappings
+   * @param hasher the Hasher to use for keys, or null to use their
+   * equals and hashCode methods
+   * @throws IllegalArgumentException if expectedSize is negative
+   **/
+  public HasherMap(int expectedSize, /*@Nullable*/ Hasher hasher) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+    }
+    this.hasher = hasher;
+    allocate(capacityFor(expectedSize));
+  }
+
+  // Returns a capacity (a power of two) at most half full with n entries.
+  private static int capacityFor(int n) {
+    int capacity = MIN_CAPACITY;
+    while (capacity / 2 < n && capacity < MAXIMUM_CAPACITY) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    keys = new Object[capacity];
+    hashes = new int[capacity];
+    vals = new Object[capacity];
+    shift = 32 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /*@Pure*/ private static Object maskNull(/*@Nullable*/ Object key) {
+    return (key == null) ? NULL_KEY : key;
+  }
+
+  @SuppressWarnings("unchecked")
+  /*@Pure*/ private static <K> /*@Nullable*/ K unmaskNull(Object key) {
+    return (key == NULL_KEY) ? null : (K) key;
+  }
+
+  private int keyHashCode(Object key) {
+    if (key == NULL_KEY) {
+      return 0;
+    }
+    return (hasher == null) ? key.hashCode() : hasher.hashCode(key);
+  }
+
+  // Requires that key2 is a key in the table (not NULL_KEY unless key1 is).
+  private boolean keyEquals(Object key1, Object key2) {
+    if (key1 == key2) {
+      return true;
+    }
+    if (key1 == NULL_KEY || key2 == NULL_KEY) {
+      return false;
+    }
+    return (hasher == null) ? key1.equals(key2) : hasher.equals(key1, key2);
+  }
+
+  // Uses the high bits of the scrambled hash code.
+  /*@Pure*/ private int indexFor(int hash) {
+    return (hash * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   * Returns the slot that holds the given (masked) key, or -1.
+   **/
+  private int find(Object key, int hash) {
+    int mask = keys.length - 1;
+    for (int i = indexFor(hash); ; i = (i + 1) & mask) {
+      Object k = keys[i];
+      if (k == null) {
+        return -1;
+      }
+      if (hashes[i] == hash && k != TOMBSTONE && keyEquals(key, k)) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Removes the entry in slot i, leaving a tombstone.  Does not move any
+   * other entry, so it does not invalidate iterators.
+   **/
+  private void removeSlot(int i) {
+    keys[i] = TOMBSTONE;
+    vals[i] = null;
+    size--;
+    tombstones++;
+  }
+
+  /**
+   * Rehashes into a table sized for the entries, discarding tombstones.
+   **/
+  private void rehash() {
+    /*@Nullable*/ Object[] oldKeys = keys;
+    int[] oldHashes = hashes;
+    /*@Nullable*/ Object[] oldVals = vals;
+    allocate(capacityFor(size + 1));
+    tombstones = 0;
+    int mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object k = oldKeys[j];
+      if (k == null || k == TOMBSTONE) {
+        continue;
+      }
+      int i = indexFor(oldHashes[j]);
+      while (keys[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = k;
+      hashes[i] = oldHashes[j];
+      vals[i] = oldVals[j];
+    }
+    modCount++;
+  }
+
+  /* -- Queries and updates -- */
+
+  /*@Pure*/ public int size() {
+    return size;
+  }
+
+  /*@Pure*/ public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /*@Pure*/ public boolean containsKey(/*@Nullable*/ Object key) {
+    Object k = maskNull(key);
+    return find(k, keyHashCode(k)) != -1;
+  }
+
+  /*@Pure*/ public /*@Nullable*/ V get(/*@Nullable*/ Object key) {
+    Object k = maskNull(key);
+    int i = find(k, keyHashCode(k));
+    if (i == -1) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    V result = (V) vals[i];
+    return result;
+  }
+
+  /**
+   * Returns the key in this map that is equal to the given key according
+   * to the hasher, or null if there is none.  Useful for canonicalization.
+   * @param key the key to look up
+   * @return the key in this map that equals key, or null
+   **/
+  /*@Pure*/ public /*@Nullable*/ K getKey(/*@Nullable*/ Object key) {
+    Object k = maskNull(key);
+    int i = find(k, keyHashCode(k));
+    if (i == -1) {
+      return null;
+    }
+    @SuppressWarnings("nullness") // a found slot holds a key
+    /*@NonNull*/ Object result = keys[i];
+    return HasherMap.<K>unmaskNull(result);
+  }
+
+  public /*@Nullable*/ V put(K key, V value) {
+    Object k = maskNull(key);
+    int hash = keyHashCode(k);
+    int mask = keys.length - 1;
+    int free = -1;              // the first tombstone on the probe path
+    int i = indexFor(hash);
+    for ( ; keys[i] != null; i = (i + 1) & mask) {
+      Object existing = keys[i];
+      if (existing == TOMBSTONE) {
+        if (free == -1) {
+          free = i;
+        }
+      } else if (hashes[i] == hash && keyEquals(k, existing)) {
+        @SuppressWarnings("unchecked")
+        V old = (V) vals[i];
+        vals[i] = value;
+        return old;
+      }
+    }
+    if (free != -1) {
+      i = free;
+      tombstones--;
+    }
+    keys[i] = k;
+    hashes[i] = hash;
+    vals[i] = value;
+    size++;
+    modCount++;
+    if ((size + tombstones) * 4 > keys.length * 3) {
+      rehash();
+    }
+    return null;
+  }
+
+  public /*@Nullable*/ V remove(/*@Nullable*/ Object key) {
+    Object k = maskNull(key);
+    int i = find(k, keyHashCode(k));
+    if (i == -1) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    V old = (V) vals[i];
+    removeSlot(i);
+    modCount++;
+    return old;
+  }
+
+  public void clear() {
+    allocate(MIN_CAPACITY);
+    size = 0;
+    tombstones = 0;
+    modCount++;
+  }
+
+  /* -- Views -- */
+
+  private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+    private int index = 0;                  // the next slot to examine
+    private int lastReturned = -1;
+    private int expectedModCount = modCount;
+
+    public boolean hasNext() {
+      while (index < keys.length
+             && (keys[index] == null || keys[index] == TOMBSTONE)) {
+        index++;
+      }
+      return index < keys.length;
+    }
+
+    public Map.Entry<K,V> next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (! hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = index++;
+      return new Entry(lastReturned);
+    }
+
+    public void remove() {
+      if (lastReturned == -1) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeSlot(lastReturned);
+      lastReturned = -1;
+    }
+  }
+
+  /** An entry of the map. */
+  private final class Entry extends AbstractMap.SimpleEntry<K,V> {
+    static final long serialVersionUID = 20261015L;
+
+    private final int slot;
+    private final transient Object maskedKey;
+
+    @SuppressWarnings({"unchecked", "nullness"}) // slot holds a key
+    Entry(int slot) {
+      super(HasherMap.<K>unmaskNull(keys[slot]), (V) vals[slot]);
+      this.slot = slot;
+      this.maskedKey = keys[slot];
+    }
+
+    public V setValue(V value) {
+      if (slot < keys.length && keys[slot] == maskedKey) {
+        vals[slot] = value;
+      } else {
+        // The table has been rehashed since this entry was returned.
+        put(getKey(), value);
+      }
+      return super.setValue(value);
+    }
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+    public Iterator<Map.Entry<K,V>> iterator() {
+      return new EntryIterator();
+    }
+    /*@Pure*/ public int size() {
+      return size;
+    }
+    public void clear() {
+      HasherMap.this.clear();
+    }
+  }
+
+  private /*@Nullable*/ Set<Map.Entry<K,V>> entrySet = null;
+
+  /**
+   * Returns a <code>Set</code> view of the mappings in this map.
+   **/
+  /*@SideEffectFree*/ public Set<Map.Entry<K,V>> entrySet() {
+    if (entrySet == null) entrySet = new EntrySet();
+    return entrySet;
+  }
+
+}
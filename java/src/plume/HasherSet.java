@@ -0,0 +1,103 @@
+package plume;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A set whose elements are hashed and compared by a {@link Hasher}.  It
+ * is backed by a {@link HasherMap}, so it uses open addressing and
+ * allocates no object per element.  For example, with
+ * {@link Intern#intArrayHasher()}, a set can hold int[] arrays and find
+ * them by content.
+ * <p>
+ *
+ * This class is not synchronized.  Its iterators are fail-fast.  The
+ * null element is permitted.
+ *
+ * @param <E> the type of elements
+ * @see HasherMap
+ **/
+public class HasherSet<E> extends AbstractSet<E> implements Set<E> {
+
+  /** The value of every key in the backing map. */
+  private static final Object PRESENT = new Object();
+
+  private final HasherMap<E,Object> map;
+
+  /**
+   * Creates a new, empty set that uses its elements' equals and hashCode
+   * methods.
+   **/
+  public HasherSet() {
+    this(null);
+  }
+
+  /**
+   * Creates a new, empty set that uses the given hasher for hashing
+   * elements and comparing them for equality.
+   * @param hasher the Hasher to use for elements, or null to use their
+   * equals and hashCode methods
+   **/
+  public HasherSet(/*@Nullable*/ Hasher hasher) {
+    map = new HasherMap<E,Object>(hasher);
+  }
+
+  /**
+   * Creates a new set containing the given elements, which uses the
+   * given hasher for hashing elements and comparing them for equality.
+   * @param c the elements to add to the set
+   * @param hasher the Hasher to use for elements, or null to use their
+   * equals and hashCode methods
+   **/
+  public HasherSet(Collection<? extends E> c, /*@Nullable*/ Hasher hasher) {
+    map = new HasherMap<E,Object>(c.size(), hasher);
+    addAll(c);
+  }
+
+  public Iterator<E> iterator() {
+    return map.keySet().iterator();
+  }
+
+  /*@Pure*/ public int size() {
+    return map.size();
+  }
+
+  /*@Pure*/ public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  /*@Pure*/ public boolean contains(/*@Nullable*/ Object o) {
+    return map.containsKey(o);
+  }
+
+  /**
+   * Returns the element of this set that is equal to the given object
+   * according to the hasher, or null if there is none.  Useful for
+   * canonicalization.
+   * @param o the object to look up
+   * @return the element of this set that equals o, or null
+   **/
+  /*@Pure*/ public /*@Nullable*/ E get(/*@Nullable*/ Object o) {
+    return map.getKey(o);
+  }
+
+  public boolean add(E e) {
+    return map.put(e, PRESENT) == null;
+  }
+
+  public boolean remove(/*@Nullable*/ Object o) {
+    return map.remove(o) == PRESENT;
+  }
+
+  public void clear() {
+    map.clear();
+  }
+
+}
@@ -0,0 +1,192 @@
+package plume;
+
+import java.io.Serializable;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values
+ * added to it, using a fixed, small amount of memory.  A sketch of
+ * precision p uses 2<sup>p</sup> bytes and has a relative standard error
+ * of about 1.04/sqrt(2<sup>p</sup>):  for the default precision of 12,
+ * 4 kilobytes and 1.6%.
+ * <p>
+ *
+ * Two sketches of the same precision can be merged; the result estimates
+ * the number of distinct values added to either.  Merging takes time
+ * proportional to the size of a sketch, regardless of how many values
+ * were added.
+ * <p>
+ *
+ * See Flajolet, Fusy, Gandouet, and Meunier, "HyperLogLog: the analysis
+ * of a near-optimal cardinality estimation algorithm", AofA 2007.
+ *
+ * @see LimitedSizeSet#enableOverflowSketch(int)
+ **/
+public final class HyperLogLog
+  implements Serializable, Cloneable
+{
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261015L;
+
+  /** The smallest permitted precision. */
+  public static final int MIN_PRECISION = 4;
+  /** The largest permitted precision. */
+  public static final int MAX_PRECISION = 16;
+  /** The default precision, which uses 4 kilobytes. */
+  public static final int DEFAULT_PRECISION = 12;
+
+  private final int precision;
+  // For each bucket, the largest rank (1 + the number of leading zeros)
+  // of a hash that fell into it.
+  private byte[] registers;
+
+  /**
+   * Creates a new, empty sketch.
+   * @param precision the base-2 logarithm of the number of registers,
+   * between MIN_PRECISION and MAX_PRECISION
+   * @throws IllegalArgumentException if precision is out of range
+   **/
+  public HyperLogLog(int precision) {
+    if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException("Illegal precision: " + precision);
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  /** Creates a new, empty sketch with the default precision. */
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  /**
+   * Returns the precision of this sketch.
+   * @return the base-2 logarithm of the number of registers
+   **/
+  /*@Pure*/ public int precision() {
+    return precision;
+  }
+
+  /**
+   * Scrambles the bits of x, so that similar values have dissimilar
+   * hashes.  This is the finalizer of MurmurHash3.
+   **/
+  /*@Pure*/ static long mix(long x) {
+    x ^= x >>> 33;
+    x *= 0xff51afd7ed558ccdL;
+    x ^= x >>> 33;
+    x *= 0xc4ceb9fe1a85ec53L;
+    x ^= x >>> 33;
+    return x;
+  }
+
+  /**
+   * Adds a value, given its 64-bit hash, which must be uniformly
+   * distributed.
+   * @param hash a well-mixed hash of the value
+   **/
+  public void addHash(long hash) {
+    int bucket = (int) (hash >>> (64 - precision));
+    // Set a low bit, so that the rank is at most 65 - precision.
+    long rest = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (rank > registers[bucket]) {
+      registers[bucket] = rank;
+    }
+  }
+
+  /**
+   * Adds a long (or int) value.
+   * @param value the value to add
+   **/
+  public void add(long value) {
+    addHash(mix(value));
+  }
+
+  /**
+   * Adds a double value.  Distinguishes -0.0 from 0.0, but not different
+   * NaN values.
+   * @param value the value to add
+   **/
+  public void add(double value) {
+    addHash(mix(Double.doubleToLongBits(value)));
+  }
+
+  /**
+   * Adds an object, using its hashCode method.  The estimate is only as
+   * good as the hash codes:  objects with equal hash codes are counted
+   * once.
+   * @param o the object to add
+   **/
+  public void addObject(/*@Nullable*/ Object o) {
+    addHash(mix((o == null) ? 0 : o.hashCode()));
+  }
+
+  /**
+   * Adds every value added to the other sketch into this one.
+   * @param other a sketch of the same precision
+   * @throws IllegalArgumentException if the precisions differ
+   **/
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("Precision " + other.precision + " differs from " + precision);
+    }
+    for (int i=0; i<registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * Returns the estimated number of distinct values added to this sketch.
+   * @return the estimated number of distinct values
+   **/
+  /*@Pure*/ public long estimate() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte r : registers) {
+      sum += 1.0 / (1L << r);
+      if (r == 0) {
+        zeros++;
+      }
+    }
+    double alpha;
+    switch (m) {
+    case 16: alpha = 0.673; break;
+    case 32: alpha = 0.697; break;
+    case 64: alpha = 0.709; break;
+    default: alpha = 0.7213 / (1 + 1.079 / m); break;
+    }
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros != 0) {
+      // Small range correction:  linear counting.
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  @SuppressWarnings("sideeffectfree")   // side effect to local state (clone)
+  /*@SideEffectFree*/ public HyperLogLog clone() {
+    HyperLogLog result;
+    try {
+      result = (HyperLogLog) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new Error(); // can't happen
+    }
+    result.registers = registers.clone();
+    return result;
+  }
+
+  /*@SideEffectFree*/ public String toString() {
+    return "[HyperLogLog precision=" + precision + "; estimate=" + estimate() + "]";
+  }
+
+}
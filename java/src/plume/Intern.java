@@ -1,7 +1,22 @@
 package plume;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
 import java.lang.ref.WeakReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /*>>>
 import org.checkerframework.checker.interning.qual.*;
@@ -21,6 +36,11 @@ import org.checkerframework.dataflow.qual.*;
  *
  * Java builds in interning for Strings, but not for other objects.  The
  * methods in this class extend interning to all Java objects.
+ * <p>
+ *
+ * The methods in this class are thread-safe.  By default each table is
+ * guarded by a single lock; see {@link #setConcurrencyLevel(int)} for
+ * letting multiple threads intern values of the same type in parallel.
  **/
 public final class Intern {
   private Intern() { throw new Error("do not instantiate"); }
@@ -78,6 +98,8 @@ public final class Intern {
       return (value == intern((double[]) value));
     } else if (value instanceof Object[]) {
       return (value == intern((Object[]) value));
+    } else if (registeredTables.containsKey(value.getClass())) {
+      return (value == internRegistered(value));
     } else {
       // Nothing to do, because we don't intern other types.
       // System.out.println("What type? " + value.getClass().getName());
@@ -90,34 +112,18 @@ public final class Intern {
   /// Interning objects
   ///
 
-  /**
-   * Hasher object which hashes and compares Integers.
-   * This is the obvious implementation that uses intValue() for the hashCode.
-   * @see Hasher
-   **/
-  private static final class IntegerHasher implements Hasher {
-    public boolean equals(Object a1, Object a2) {
-      return a1.equals(a2);
-    }
-    public int hashCode(Object o) {
-      Integer i = (Integer) o;
-      return i.intValue();
-    }
+  // The array hashers also accept a SequenceAndIndices in place of an
+  // array, standing for the elements seq[start..end).  This lets
+  // internSubsequence look up a subsequence without copying it.  These
+  // methods return the array, start, and end of either kind of key.
+  private static Object arrayOf(Object key) {
+    return (key instanceof SequenceAndIndices<?>) ? ((SequenceAndIndices<?>) key).seq : key;
   }
-
-  /**
-   * Hasher object which hashes and compares Longs.
-   * This is the obvious implementation that uses intValue() for the hashCode.
-   * @see Hasher
-   **/
-  private static final class LongHasher implements Hasher {
-    public boolean equals(Object a1, Object a2) {
-      return a1.equals(a2);
-    }
-    public int hashCode(Object o) {
-      Long i = (Long) o;
-      return i.intValue();
-    }
+  private static int startOf(Object key) {
+    return (key instanceof SequenceAndIndices<?>) ? ((SequenceAndIndices<?>) key).start : 0;
+  }
+  private static int endOf(Object key, int length) {
+    return (key instanceof SequenceAndIndices<?>) ? ((SequenceAndIndices<?>) key).end : length;
   }
 
   /**
@@ -128,12 +134,27 @@ public final class Intern {
    **/
   private static final class IntArrayHasher implements Hasher {
     public boolean equals(Object a1, Object a2) {
-      return java.util.Arrays.equals((int[])a1, (int[])a2);
+      int[] da1 = (int[])arrayOf(a1);
+      int[] da2 = (int[])arrayOf(a2);
+      if (da1 == a1 && da2 == a2) {
+        return java.util.Arrays.equals(da1, da2);
+      }
+      int start1 = startOf(a1);
+      int start2 = startOf(a2);
+      int len = endOf(a1, da1.length) - start1;
+      if (len != endOf(a2, da2.length) - start2)
+        return false;
+      for (int i=0; i<len; i++) {
+        if (da1[start1+i] != da2[start2+i]) {
+          return false;
+        }
+      }
+      return true;
     }
     public int hashCode(Object o) {
-      int[] a = (int[])o;
+      int[] a = (int[])arrayOf(o);
       int result = 0;
-      for (int i=0; i<a.length; i++) {
+      for (int i=startOf(o), end=endOf(o, a.length); i<end; i++) {
         result = result * FACTOR + a[i];
       }
       return result;
@@ -148,12 +169,27 @@ public final class Intern {
    **/
   private static final class LongArrayHasher implements Hasher {
     public boolean equals(Object a1, Object a2) {
-      return java.util.Arrays.equals((long[])a1, (long[])a2);
+      long[] da1 = (long[])arrayOf(a1);
+      long[] da2 = (long[])arrayOf(a2);
+      if (da1 == a1 && da2 == a2) {
+        return java.util.Arrays.equals(da1, da2);
+      }
+      int start1 = startOf(a1);
+      int start2 = startOf(a2);
+      int len = endOf(a1, da1.length) - start1;
+      if (len != endOf(a2, da2.length) - start2)
+        return false;
+      for (int i=0; i<len; i++) {
+        if (da1[start1+i] != da2[start2+i]) {
+          return false;
+        }
+      }
+      return true;
     }
     public int hashCode(Object o) {
-      long[] a = (long[])o;
+      long[] a = (long[])arrayOf(o);
       long result = 0;
-      for (int i=0; i<a.length; i++) {
+      for (int i=startOf(o), end=endOf(o, a.length); i<end; i++) {
         result = result * FACTOR + a[i];
       }
       return (int) (result % Integer.MAX_VALUE);
@@ -164,22 +200,6 @@ public final class Intern {
   // private static final double DOUBLE_FACTOR = 65537;
   private static final double DOUBLE_FACTOR = 263;
 
-  /**
-   * Hasher object which hashes and compares Doubles.
-   * @see Hasher
-   **/
-  private static final class DoubleHasher implements Hasher {
-    public boolean equals(Object a1, Object a2) {
-      return a1.equals(a2);
-    }
-    public int hashCode(Object o) {
-      Double d = (Double) o;
-      // Could add "... % Integer.MAX_VALUE" here; is that good to do?
-      long result = Math.round(d.doubleValue() * DOUBLE_FACTOR);
-      return (int) (result % Integer.MAX_VALUE);
-    }
-  }
-
   /**
    * Hasher object which hashes and compares double[] objects according
    * to their contents.
@@ -191,22 +211,27 @@ public final class Intern {
       // "java.util.Arrays.equals" considers +0.0 != -0.0.
       // Also, it gives inconsistent results (on different JVMs/classpaths?).
       // return java.util.Arrays.equals((double[])a1, (double[])a2);
-      double[] da1 = (double[])a1;
-      double[] da2 = (double[])a2;
-      if (da1.length != da2.length)
+      double[] da1 = (double[])arrayOf(a1);
+      double[] da2 = (double[])arrayOf(a2);
+      int start1 = startOf(a1);
+      int start2 = startOf(a2);
+      int len = endOf(a1, da1.length) - start1;
+      if (len != endOf(a2, da2.length) - start2)
         return false;
-      for (int i=0; i<da1.length; i++) {
-        if (! ((da1[i] == da2[i])
-               || (Double.isNaN(da1[i]) && Double.isNaN(da2[i])))) {
+      for (int i=0; i<len; i++) {
+        double d1 = da1[start1+i];
+        double d2 = da2[start2+i];
+        if (! ((d1 == d2)
+               || (Double.isNaN(d1) && Double.isNaN(d2)))) {
           return false;
         }
       }
       return true;
     }
     public int hashCode(Object o) {
-      double[] a = (double[])o;
+      double[] a = (double[])arrayOf(o);
       double running = 0;
-      for (int i=0; i<a.length; i++) {
+      for (int i=startOf(o), end=endOf(o, a.length); i<end; i++) {
         double elt = (Double.isNaN(a[i]) ? 0.0 : a[i]);
         running = running * FACTOR + elt * DOUBLE_FACTOR;
       }
@@ -224,12 +249,12 @@ public final class Intern {
    **/
   private static final class StringArrayHasher implements Hasher {
     public boolean equals(Object a1, Object a2) {
-      return java.util.Arrays.equals((String[])a1, (String[])a2);
+      return objectArraysEqual(a1, a2);
     }
     public int hashCode(Object o) {
-      String[] a = (String[])o;
+      /*@Nullable*/ Object[] a = (/*@Nullable*/ Object[])arrayOf(o);
       int result = 0;
-      for (int i=0; i<a.length; i++) {
+      for (int i=startOf(o), end=endOf(o, a.length); i<end; i++) {
         int a_hashcode = (a[i] == null) ? 0 : a[i].hashCode();
         result = result * FACTOR + a_hashcode;
       }
@@ -245,12 +270,12 @@ public final class Intern {
    **/
   private static final class ObjectArrayHasher implements Hasher {
     public boolean equals(Object a1, Object a2) {
-      return java.util.Arrays.equals((/*@Nullable*/ Object[])a1, (/*@Nullable*/ Object[])a2);
+      return objectArraysEqual(a1, a2);
     }
     public int hashCode(Object o) {
-      /*@Nullable*/ Object[] a = (/*@Nullable*/ Object[])o;
+      /*@Nullable*/ Object[] a = (/*@Nullable*/ Object[])arrayOf(o);
       int result = 0;
-      for (int i=0; i<a.length; i++) {
+      for (int i=startOf(o), end=endOf(o, a.length); i<end; i++) {
         Object elt = a[i];
         int elt_hashcode = (elt == null) ? 0 : elt.hashCode();
         result = result * FACTOR + elt_hashcode;
@@ -259,44 +284,1332 @@ public final class Intern {
     }
   }
 
-  // Each of these maps has:
-  //   key = an interned object
-  //   value = a WeakReference for the object itself.
-  // They can be looked up using a non-interned value; equality tests know
-  // nothing of the interning types.
-
-  private static WeakHasherMap</*@Interned*/ Integer,WeakReference</*@Interned*/ Integer>> internedIntegers;
-  private static WeakHasherMap</*@Interned*/ Long,WeakReference</*@Interned*/ Long>> internedLongs;
-  private static WeakHasherMap<int /*@Interned*/ [],WeakReference<int /*@Interned*/ []>> internedIntArrays;
-  private static WeakHasherMap<long /*@Interned*/ [],WeakReference<long /*@Interned*/ []>> internedLongArrays;
-  private static WeakHasherMap</*@Interned*/ Double,WeakReference</*@Interned*/ Double>> internedDoubles;
-  private static /*@Interned*/ Double internedDoubleNaN;
-  private static /*@Interned*/ Double internedDoubleZero;
-  private static WeakHasherMap<double /*@Interned*/ [],WeakReference<double /*@Interned*/ []>> internedDoubleArrays;
-  private static WeakHasherMap</*@Nullable*/ /*@Interned*/ String /*@Interned*/ [],WeakReference</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>> internedStringArrays;
-  private static WeakHasherMap</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ [],WeakReference</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>> internedObjectArrays;
-  private static WeakHasherMap<SequenceAndIndices<int /*@Interned*/ []>,WeakReference<int /*@Interned*/ []>> internedIntSequenceAndIndices;
-  private static WeakHasherMap<SequenceAndIndices<long /*@Interned*/ []>,WeakReference<long /*@Interned*/ []>> internedLongSequenceAndIndices;
-  private static WeakHasherMap<SequenceAndIndices<double /*@Interned*/ []>,WeakReference<double /*@Interned*/ []>> internedDoubleSequenceAndIndices;
-  private static WeakHasherMap<SequenceAndIndices</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>,WeakReference</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>> internedObjectSequenceAndIndices;
-  private static WeakHasherMap<SequenceAndIndices</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>,WeakReference</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>> internedStringSequenceAndIndices;
+  private static final Hasher INT_ARRAY_HASHER = new IntArrayHasher();
+  private static final Hasher LONG_ARRAY_HASHER = new LongArrayHasher();
+  private static final Hasher DOUBLE_ARRAY_HASHER = new DoubleArrayHasher();
+  private static final Hasher STRING_ARRAY_HASHER = new StringArrayHasher();
+  private static final Hasher OBJECT_ARRAY_HASHER = new ObjectArrayHasher();
+
+  /**
+   * Returns a Hasher that hashes and compares int[] arrays by their
+   * contents, as {@link #intern(int[])} does.  It can be used with
+   * {@link HasherMap}, {@link HasherSet}, and {@link WeakHasherMap}.
+   * @return a Hasher for int[] arrays
+   **/
+  public static Hasher intArrayHasher() {
+    return INT_ARRAY_HASHER;
+  }
+
+  /**
+   * Returns a Hasher that hashes and compares long[] arrays by their
+   * contents, as {@link #intern(long[])} does.
+   * @return a Hasher for long[] arrays
+   * @see #intArrayHasher()
+   **/
+  public static Hasher longArrayHasher() {
+    return LONG_ARRAY_HASHER;
+  }
+
+  /**
+   * Returns a Hasher that hashes and compares double[] arrays by their
+   * contents, as {@link #intern(double[])} does:  NaN equals NaN, and
+   * +0.0 equals -0.0.
+   * @return a Hasher for double[] arrays
+   * @see #intArrayHasher()
+   **/
+  public static Hasher doubleArrayHasher() {
+    return DOUBLE_ARRAY_HASHER;
+  }
+
+  /**
+   * Returns a Hasher that hashes and compares String[] arrays by their
+   * contents, as {@link #intern(String[])} does.
+   * @return a Hasher for String[] arrays
+   * @see #intArrayHasher()
+   **/
+  public static Hasher stringArrayHasher() {
+    return STRING_ARRAY_HASHER;
+  }
+
+  /**
+   * Returns a Hasher that hashes and compares Object[] arrays by their
+   * contents, as {@link #intern(Object[])} does.
+   * @return a Hasher for Object[] arrays
+   * @see #intArrayHasher()
+   **/
+  public static Hasher objectArrayHasher() {
+    return OBJECT_ARRAY_HASHER;
+  }
+
+  // Compares two Object[] keys (or slices of them) elementwise, like
+  // java.util.Arrays.equals(Object[], Object[]).
+  private static boolean objectArraysEqual(Object a1, Object a2) {
+    /*@Nullable*/ Object[] da1 = (/*@Nullable*/ Object[])arrayOf(a1);
+    /*@Nullable*/ Object[] da2 = (/*@Nullable*/ Object[])arrayOf(a2);
+    if (da1 == a1 && da2 == a2) {
+      return java.util.Arrays.equals(da1, da2);
+    }
+    int start1 = startOf(a1);
+    int start2 = startOf(a2);
+    int len = endOf(a1, da1.length) - start1;
+    if (len != endOf(a2, da2.length) - start2)
+      return false;
+    for (int i=0; i<len; i++) {
+      Object elt1 = da1[start1+i];
+      Object elt2 = da2[start2+i];
+      if (! (elt1 == null ? elt2 == null : elt1.equals(elt2))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Interning tables
+  ///
+
+  /**
+   * Usage counts, and the hot set, for one segment of an interning table.
+   * Guarded by the segment's lock, which is the segment object itself.
+   **/
+  private static class SegmentStatistics {
+    long lookups = 0;
+    long hits = 0;
+    // The number of canonical values added; never reset, because it is
+    // used to compute the number of values that have been reclaimed.
+    long insertions = 0;
+    long bytesSaved = 0;
+    // The segment's most recently used canonical values, which are held
+    // strongly so that they survive garbage collection.  Null if the table
+    // has no hot set.
+    /*@Nullable*/ HotSet hot = null;
+
+    /** Records a use of the canonical value, for the hot set. */
+    final void touch(Object canonical) {
+      if (hot != null) {
+        hot.touch(canonical);
+      }
+    }
+
+    void add(SegmentStatistics other) {
+      lookups += other.lookups;
+      hits += other.hits;
+      insertions += other.insertions;
+      bytesSaved += other.bytesSaved;
+    }
+  }
+
+  /**
+   * A bounded set of canonical values, held strongly, that evicts the
+   * least recently used value when it is full.  Values are compared by
+   * identity:  their own hashCode and equals methods may be expensive,
+   * and may disagree with the table's Hasher.
+   **/
+  private static final class HotSet extends LinkedHashMap<IdentityKey,Boolean> {
+    static final long serialVersionUID = 20261015L;
+
+    private final int maxSize;
+
+    HotSet(int maxSize) {
+      super(16, 0.75f, true);   // access order
+      this.maxSize = maxSize;
+    }
+
+    /** Adds the value, or marks it as the most recently used. */
+    void touch(Object value) {
+      put(new IdentityKey(value), Boolean.TRUE);
+    }
+
+    /*@Pure*/ boolean contains(Object value) {
+      return containsKey(new IdentityKey(value));
+    }
+
+    protected boolean removeEldestEntry(Map.Entry<IdentityKey,Boolean> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  /** Wraps a value so that it is hashed and compared by identity. */
+  private static final class IdentityKey {
+    final Object value;
+    IdentityKey(Object value) {
+      this.value = value;
+    }
+    public int hashCode() {
+      return System.identityHashCode(value);
+    }
+    public boolean equals(/*@Nullable*/ Object other) {
+      return (other instanceof IdentityKey) && ((IdentityKey) other).value == value;
+    }
+  }
+
+  /**
+   * Common superclass of the tables that hold interned values.
+   * The tables are split into segments, each of which has its own lock.
+   **/
+  private abstract static class AbstractInternTable {
+    /** The name of the table, for reporting statistics. */
+    final String name;
+
+    AbstractInternTable(String name) {
+      this.name = name;
+    }
+
+    /** Returns the number of canonical values in the table. */
+    abstract int size();
+
+    /** Returns the number of slots in the table, which may be estimated. */
+    abstract int capacity();
+
+    /** Returns the table's current segments. */
+    abstract SegmentStatistics[] segmentStatistics();
+
+    /**
+     * Re-partitions the table into the given number of segments (a power
+     * of two), preserving its contents.  Not safe to call while other
+     * threads are using the table.
+     **/
+    abstract void setConcurrencyLevel(int numSegments);
+
+    // The total number of values in the hot sets of the segments.
+    // Changed only by setHotSetCapacity.
+    private volatile int hotSetCapacity = 0;
+
+    /**
+     * Returns a new hot set for one of numSegments segments, or null if
+     * the table has no hot set.
+     **/
+    /*@Nullable*/ HotSet newHotSet(int numSegments) {
+      int perSegment = (hotSetCapacity + numSegments - 1) / numSegments;
+      return (perSegment == 0) ? null : new HotSet(perSegment);
+    }
+
+    /**
+     * Sets the number of recently-used canonical values that the table
+     * holds strongly, divided evenly among the segments.  0 means none.
+     * Not safe to call concurrently with setConcurrencyLevel.
+     **/
+    void setHotSetCapacity(int capacity) {
+      hotSetCapacity = capacity;
+      SegmentStatistics[] segs = segmentStatistics();
+      for (SegmentStatistics segment : segs) {
+        synchronized (segment) {
+          HotSet hot = newHotSet(segs.length);
+          if (hot != null && segment.hot != null) {
+            hot.putAll(segment.hot); // in access order, so keeps the most recent
+          }
+          segment.hot = hot;
+        }
+      }
+    }
+
+    int hotSetCapacity() {
+      return hotSetCapacity;
+    }
+
+    InternStatistics statistics() {
+      SegmentStatistics total = new SegmentStatistics();
+      for (SegmentStatistics segment : segmentStatistics()) {
+        synchronized (segment) {
+          total.add(segment);
+        }
+      }
+      int size = size();
+      return new InternStatistics(name, total.lookups, total.hits,
+                                  Math.max(0, total.insertions - size),
+                                  size, capacity(), total.bytesSaved);
+    }
+
+    /**
+     * Groups the indices of a batch of elements by the segment that each
+     * element belongs to, so that each segment's lock can be taken once
+     * per batch.  Returns the indices 0..segmentOf.length-1 (omitting
+     * those whose segment is -1), ordered by segment.  Sets starts[s] to
+     * the position in the result of the first index in segment s, and
+     * the last element of starts to the length of the result.
+     **/
+    static int[] groupBySegment(int[] segmentOf, int[] starts) {
+      int numSegments = starts.length - 1;
+      int[] counts = new int[numSegments];
+      for (int seg : segmentOf) {
+        if (seg != -1) {
+          counts[seg]++;
+        }
+      }
+      starts[0] = 0;
+      for (int s=0; s<numSegments; s++) {
+        starts[s+1] = starts[s] + counts[s];
+      }
+      int[] order = new int[starts[numSegments]];
+      int[] next = Arrays.copyOf(starts, numSegments);
+      for (int i=0; i<segmentOf.length; i++) {
+        if (segmentOf[i] != -1) {
+          order[next[segmentOf[i]]++] = i;
+        }
+      }
+      return order;
+    }
+
+    void resetStatistics() {
+      for (SegmentStatistics segment : segmentStatistics()) {
+        synchronized (segment) {
+          segment.lookups = 0;
+          segment.hits = 0;
+          segment.bytesSaved = 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the approximate number of bytes occupied by an interned
+   * value, assuming 16-byte object headers and 4-byte references.
+   * Used only for estimating the space saved by interning.
+   **/
+  /*@Pure*/ private static long estimatedSize(Object value) {
+    long size;
+    if (value instanceof int[]) {
+      size = 16 + 4L * ((int[]) value).length;
+    } else if (value instanceof long[]) {
+      size = 16 + 8L * ((long[]) value).length;
+    } else if (value instanceof double[]) {
+      size = 16 + 8L * ((double[]) value).length;
+    } else if (value instanceof Object[]) {
+      size = 16 + 4L * ((Object[]) value).length;
+    } else if (value instanceof Integer) {
+      size = 16;
+    } else {
+      size = 24;
+    }
+    return (size + 7) & ~7L;    // objects are 8-byte aligned
+  }
+
+  /**
+   * A thread-safe table that maps a key to the canonical (interned)
+   * representative for it.  The table is split into segments, each of
+   * which is a ReferenceHasherMap guarded by its own lock.  A key's segment
+   * is chosen from its Hasher hash code, so threads that intern values
+   * falling into different segments do not contend with one another.
+   * Keys and values are both held weakly; a key that is its own canonical
+   * value costs a single reference object.
+   * <p>
+   * With one segment (the default), every operation takes the same lock,
+   * which behaves like an external global lock around a single map.
+   * @see Intern#setConcurrencyLevel(int)
+   **/
+  private static final class InternTable<K,V> extends AbstractInternTable {
+
+    private static final class Segment<K,V> extends SegmentStatistics {
+      final ReferenceHasherMap<K,V> map;
+      Segment(Hasher hasher) {
+        map = new ReferenceHasherMap<K,V>(ReferenceHasherMap.Strength.WEAK,
+                                          ReferenceHasherMap.Strength.WEAK,
+                                          hasher);
+      }
+    }
+
+    private final Hasher hasher;
+    // Length is a power of two.  Replaced only by setConcurrencyLevel.
+    private volatile Segment<K,V>[] segments;
+
+    InternTable(String name, Hasher hasher) {
+      super(name);
+      this.hasher = hasher;
+      this.segments = newSegments(1);
+    }
+
+    private Segment<K,V>[] newSegments(int n) {
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      Segment<K,V>[] result = (Segment<K,V>[]) new Segment[n];
+      for (int i=0; i<n; i++) {
+        result[i] = new Segment<K,V>(hasher);
+        result[i].hot = newHotSet(n);
+      }
+      return result;
+    }
+
+    SegmentStatistics[] segmentStatistics() {
+      return segments;
+    }
+
+    // Uses the high bits of the (scrambled) hash code, because the low
+    // bits are used by the map within each segment.
+    private int segmentIndex(Segment<K,V>[] segs, Object key) {
+      if (segs.length == 1) {
+        return 0;
+      }
+      int h = hasher.hashCode(key) * 0x9E3779B9;
+      return h >>> (32 - Integer.numberOfTrailingZeros(segs.length));
+    }
+
+    private Segment<K,V> segmentFor(Object key) {
+      Segment<K,V>[] segs = segments;
+      return segs[segmentIndex(segs, key)];
+    }
+
+    // Requires that the caller holds the segment's lock.
+    private /*@Nullable*/ V lookup(Segment<K,V> segment, Object key) {
+      V canonical = segment.map.get(key);
+      segment.lookups++;
+      if (canonical != null) {
+        segment.hits++;
+        segment.bytesSaved += estimatedSize(canonical);
+        segment.touch(canonical);
+      }
+      return canonical;
+    }
+
+    /**
+     * Returns the canonical value for the given key, or null if there is none.
+     **/
+    /*@Nullable*/ V get(Object key) {
+      Segment<K,V> segment = segmentFor(key);
+      synchronized (segment) {
+        return lookup(segment, key);
+      }
+    }
+
+    /**
+     * If the table already contains a canonical value for the key, return
+     * it.  Otherwise, make value the canonical value for the key, and
+     * return value.  The check and the update are atomic.
+     **/
+    V putIfAbsent(K key, V value) {
+      Segment<K,V> segment = segmentFor(key);
+      synchronized (segment) {
+        return putIfAbsent(segment, key, value);
+      }
+    }
+
+    // Requires that the caller holds the segment's lock.
+    private V putIfAbsent(Segment<K,V> segment, K key, V value) {
+      V canonical = lookup(segment, key);
+      if (canonical != null) {
+        return canonical;
+      }
+      segment.map.put(key, value);
+      segment.insertions++;
+      segment.touch(value);
+      return value;
+    }
+
+    /**
+     * Replaces each non-null element of a by its canonical value, first
+     * making the element canonical if the table has no value equal to it.
+     * Requires that each key in the table is its own value.  Takes each
+     * segment's lock once, rather than once per element.
+     **/
+    void internAll(/*@Nullable*/ Object[] a) {
+      Segment<K,V>[] segs = segments;
+      int[] segmentOf = new int[a.length];
+      for (int i=0; i<a.length; i++) {
+        segmentOf[i] = (a[i] == null) ? -1 : segmentIndex(segs, a[i]);
+      }
+      int[] starts = new int[segs.length + 1];
+      int[] order = groupBySegment(segmentOf, starts);
+      for (int s=0; s<segs.length; s++) {
+        if (starts[s] == starts[s+1]) {
+          continue;
+        }
+        Segment<K,V> segment = segs[s];
+        synchronized (segment) {
+          for (int j=starts[s]; j<starts[s+1]; j++) {
+            int i = order[j];
+            @SuppressWarnings("unchecked")
+            K key = (K) a[i];
+            @SuppressWarnings("unchecked")
+            V value = (V) a[i];
+            a[i] = putIfAbsent(segment, key, value);
+          }
+        }
+      }
+    }
+
+    /**
+     * Like putIfAbsent, but for use after get has returned null for the
+     * key.  Does not count another lookup, unless another thread added a
+     * canonical value for the key in the meanwhile; then counts a hit.
+     **/
+    V putAfterMiss(K key, V value) {
+      Segment<K,V> segment = segmentFor(key);
+      synchronized (segment) {
+        V canonical = segment.map.get(key);
+        if (canonical != null) {
+          segment.lookups++;
+          segment.hits++;
+          segment.bytesSaved += estimatedSize(canonical);
+          segment.touch(canonical);
+          return canonical;
+        }
+        segment.map.put(key, value);
+        segment.insertions++;
+        segment.touch(value);
+        return value;
+      }
+    }
+
+    int size() {
+      int result = 0;
+      for (Segment<K,V> segment : segments) {
+        synchronized (segment) {
+          result += segment.map.size();
+        }
+      }
+      return result;
+    }
+
+    int capacity() {
+      int result = 0;
+      for (Segment<K,V> segment : segments) {
+        synchronized (segment) {
+          result += segment.map.capacity();
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the keys in the table.
+     * The iterator holds the keys strongly.
+     **/
+    Iterator<K> keys() {
+      List<K> result = new ArrayList<K>();
+      for (Segment<K,V> segment : segments) {
+        synchronized (segment) {
+          result.addAll(segment.map.keySet());
+        }
+      }
+      return result.iterator();
+    }
+
+    void setConcurrencyLevel(int numSegments) {
+      Segment<K,V>[] oldSegments = segments;
+      if (oldSegments.length == numSegments) {
+        return;
+      }
+      Segment<K,V>[] newSegs = newSegments(numSegments);
+      segments = newSegs;
+      for (Segment<K,V> segment : oldSegments) {
+        synchronized (segment) {
+          for (Map.Entry<K,V> e : segment.map.entrySet()) {
+            Segment<K,V> newSegment = segmentFor(e.getKey());
+            V value = e.getValue();
+            newSegment.map.put(e.getKey(), value);
+            if (segment.hot != null && segment.hot.contains(value)) {
+              newSegment.touch(value);
+            }
+          }
+          newSegs[0].add(segment);
+        }
+      }
+    }
+  }
+
+  /**
+   * A thread-safe interning table for boxed primitives, keyed by the raw
+   * bits of the primitive value (an int or long value, or the bits of a
+   * double as returned by Double.doubleToRawLongBits).
+   * <p>
+   * Each segment is an open-addressed hash table stored in two parallel
+   * arrays:  the keys, and WeakReferences to the canonical boxed values.
+   * There are no per-entry key or entry objects, and a lookup that finds
+   * its value allocates nothing.  A slot whose WeakReference has been
+   * cleared by the garbage collector is reused for the same key, or for
+   * any key after the table is rehashed.
+   **/
+  private static final class PrimitiveInternTable<V> extends AbstractInternTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Segment<V> extends SegmentStatistics {
+      long[] keys = new long[MIN_CAPACITY];
+      // null means the slot is empty; a cleared reference means the slot
+      // held a value that has since been garbage-collected.
+      /*@Nullable*/ WeakReference<V>[] refs = newRefs(MIN_CAPACITY);
+      // The number of non-null elements of refs.
+      int used = 0;
+
+      private static <V> /*@Nullable*/ WeakReference<V>[] newRefs(int capacity) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        /*@Nullable*/ WeakReference<V>[] result = (/*@Nullable*/ WeakReference<V>[]) new WeakReference[capacity];
+        return result;
+      }
+
+      /*@Nullable*/ V get(long bits, int h) {
+        int mask = refs.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+          WeakReference<V> ref = refs[i];
+          if (ref == null) {
+            return null;
+          }
+          if (keys[i] == bits) {
+            // Each key occupies at most one slot.
+            return ref.get();
+          }
+        }
+      }
+
+      V putIfAbsent(long bits, int h, V value) {
+        int mask = refs.length - 1;
+        int reusable = -1;      // a slot whose value was garbage-collected
+        int i = h & mask;
+        for ( ; ; i = (i + 1) & mask) {
+          WeakReference<V> ref = refs[i];
+          if (ref == null) {
+            break;
+          }
+          if (keys[i] == bits) {
+            V canonical = ref.get();
+            if (canonical != null) {
+              return canonical;
+            }
+            refs[i] = new WeakReference<V>(value);
+            return value;
+          }
+          if (reusable == -1 && ref.get() == null) {
+            reusable = i;
+          }
+        }
+        if (reusable != -1) {
+          keys[reusable] = bits;
+          refs[reusable] = new WeakReference<V>(value);
+          return value;
+        }
+        if ((used + 1) * 4 > refs.length * 3) {
+          rehash(1);
+          return putIfAbsent(bits, h, value);
+        }
+        keys[i] = bits;
+        refs[i] = new WeakReference<V>(value);
+        used++;
+        return value;
+      }
+
+      /**
+       * Ensures that the given number of keys can be added without
+       * rehashing.
+       **/
+      void ensureCapacity(int additional) {
+        if ((long) (used + additional) * 4 > (long) refs.length * 3) {
+          rehash(additional);
+        }
+      }
+
+      // Discards garbage-collected values, and resizes so that the
+      // table is at most half full after adding the given number of keys.
+      private void rehash(int additional) {
+        int live = size();
+        int capacity = MIN_CAPACITY;
+        while (capacity / 2 <= live + additional - 1 && capacity < (1 << 30)) {
+          capacity <<= 1;
+        }
+        long[] oldKeys = keys;
+        /*@Nullable*/ WeakReference<V>[] oldRefs = refs;
+        keys = new long[capacity];
+        refs = newRefs(capacity);
+        used = 0;
+        for (int j = 0; j < oldRefs.length; j++) {
+          WeakReference<V> ref = oldRefs[j];
+          if (ref != null && ref.get() != null) {
+            insert(oldKeys[j], ref);
+          }
+        }
+      }
+
+      // Requires that bits is not in the table and that there is room.
+      void insert(long bits, WeakReference<V> ref) {
+        int mask = refs.length - 1;
+        int i = hash(bits) & mask;
+        while (refs[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = bits;
+        refs[i] = ref;
+        used++;
+      }
+
+      int size() {
+        int result = 0;
+        for (WeakReference<V> ref : refs) {
+          if (ref != null && ref.get() != null) {
+            result++;
+          }
+        }
+        return result;
+      }
+    }
+
+    /** The approximate size of each value, in bytes. */
+    private final int valueSize;
+
+    // Length is a power of two.  Replaced only by setConcurrencyLevel.
+    private volatile Segment<V>[] segments = newSegments(1);
+
+    PrimitiveInternTable(String name, int valueSize) {
+      super(name);
+      this.valueSize = valueSize;
+    }
+
+    private Segment<V>[] newSegments(int n) {
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      Segment<V>[] result = (Segment<V>[]) new Segment[n];
+      for (int i=0; i<n; i++) {
+        result[i] = new Segment<V>();
+        result[i].hot = newHotSet(n);
+      }
+      return result;
+    }
+
+    SegmentStatistics[] segmentStatistics() {
+      return segments;
+    }
+
+    /*@Pure*/ private static long scramble(long bits) {
+      return bits * 0x9E3779B97F4A7C15L;
+    }
+
+    /** The hash code for a key, used for choosing a slot within a segment. */
+    /*@Pure*/ static int hash(long bits) {
+      return (int) (scramble(bits) >>> 32);
+    }
+
+    // Uses the topmost bits of the scrambled key; hash() uses lower bits.
+    private static int segmentIndex(Segment<?>[] segs, long bits) {
+      if (segs.length == 1) {
+        return 0;
+      }
+      return (int) (scramble(bits) >>> (64 - Integer.numberOfTrailingZeros(segs.length)));
+    }
+
+    private Segment<V> segmentFor(long bits) {
+      Segment<V>[] segs = segments;
+      return segs[segmentIndex(segs, bits)];
+    }
+
+    // Requires that the caller holds the segment's lock.
+    private /*@Nullable*/ V lookup(Segment<V> segment, long bits) {
+      V canonical = segment.get(bits, hash(bits));
+      segment.lookups++;
+      if (canonical != null) {
+        segment.hits++;
+        segment.bytesSaved += valueSize;
+        segment.touch(canonical);
+      }
+      return canonical;
+    }
+
+    /**
+     * Returns the canonical value for the given key, or null if there is none.
+     **/
+    /*@Nullable*/ V get(long bits) {
+      Segment<V> segment = segmentFor(bits);
+      synchronized (segment) {
+        return lookup(segment, bits);
+      }
+    }
+
+    /**
+     * If the table already contains a canonical value for the key, return
+     * it.  Otherwise, make value the canonical value for the key, and
+     * return value.  The check and the update are atomic.
+     **/
+    V putIfAbsent(long bits, V value) {
+      Segment<V> segment = segmentFor(bits);
+      synchronized (segment) {
+        return putIfAbsent(segment, bits, value);
+      }
+    }
+
+    // Requires that the caller holds the segment's lock.
+    private V putIfAbsent(Segment<V> segment, long bits, V value) {
+      V canonical = lookup(segment, bits);
+      if (canonical != null) {
+        return canonical;
+      }
+      segment.insertions++;
+      segment.touch(value);
+      return segment.putIfAbsent(bits, hash(bits), value);
+    }
+
+    /**
+     * Replaces each non-null element of a by its canonical value, first
+     * making the element canonical if the table has no value for its key.
+     * The key of a[i] is bits[i].  Takes each segment's lock once, rather
+     * than once per element, and grows each segment at most once.
+     **/
+    void internAll(/*@Nullable*/ Object[] a, long[] bits) {
+      Segment<V>[] segs = segments;
+      int[] segmentOf = new int[a.length];
+      for (int i=0; i<a.length; i++) {
+        segmentOf[i] = (a[i] == null) ? -1 : segmentIndex(segs, bits[i]);
+      }
+      int[] starts = new int[segs.length + 1];
+      int[] order = groupBySegment(segmentOf, starts);
+      for (int s=0; s<segs.length; s++) {
+        if (starts[s] == starts[s+1]) {
+          continue;
+        }
+        Segment<V> segment = segs[s];
+        synchronized (segment) {
+          segment.ensureCapacity(starts[s+1] - starts[s]);
+          for (int j=starts[s]; j<starts[s+1]; j++) {
+            int i = order[j];
+            @SuppressWarnings({"unchecked", "nullness"}) // non-null elements were grouped
+            /*@NonNull*/ V value = (V) a[i];
+            a[i] = putIfAbsent(segment, bits[i], value);
+          }
+        }
+      }
+    }
+
+    /**
+     * Like putIfAbsent, but for use after get has returned null for the
+     * key.  Does not count another lookup, unless another thread added a
+     * canonical value for the key in the meanwhile; then counts a hit.
+     **/
+    V putAfterMiss(long bits, V value) {
+      Segment<V> segment = segmentFor(bits);
+      synchronized (segment) {
+        V result = segment.putIfAbsent(bits, hash(bits), value);
+        if (result == value) {
+          segment.insertions++;
+        } else {
+          segment.lookups++;
+          segment.hits++;
+          segment.bytesSaved += valueSize;
+        }
+        segment.touch(result);
+        return result;
+      }
+    }
+
+    int size() {
+      int result = 0;
+      for (Segment<V> segment : segments) {
+        synchronized (segment) {
+          result += segment.size();
+        }
+      }
+      return result;
+    }
+
+    int capacity() {
+      int result = 0;
+      for (Segment<V> segment : segments) {
+        synchronized (segment) {
+          result += segment.refs.length;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the values in the table.
+     * The iterator holds the values strongly.
+     **/
+    Iterator<V> values() {
+      List<V> result = new ArrayList<V>();
+      for (Segment<V> segment : segments) {
+        synchronized (segment) {
+          for (WeakReference<V> ref : segment.refs) {
+            V value = (ref == null) ? null : ref.get();
+            if (value != null) {
+              result.add(value);
+            }
+          }
+        }
+      }
+      return result.iterator();
+    }
+
+    void setConcurrencyLevel(int numSegments) {
+      Segment<V>[] oldSegments = segments;
+      if (oldSegments.length == numSegments) {
+        return;
+      }
+      Segment<V>[] newSegs = newSegments(numSegments);
+      segments = newSegs;
+      for (Segment<V> segment : oldSegments) {
+        synchronized (segment) {
+          for (int j = 0; j < segment.refs.length; j++) {
+            WeakReference<V> ref = segment.refs[j];
+            V value = (ref == null) ? null : ref.get();
+            if (value != null) {
+              long bits = segment.keys[j];
+              Segment<V> newSegment = segmentFor(bits);
+              newSegment.putIfAbsent(bits, hash(bits), value);
+              if (segment.hot != null && segment.hot.contains(value)) {
+                newSegment.touch(value);
+              }
+            }
+          }
+          newSegs[0].add(segment);
+        }
+      }
+    }
+  }
+
+  // Integers, Longs, and Doubles are keyed by the bits of their primitive
+  // values.  Each of the other tables has:
+  //   key = an interned object
+  //   value = the object itself, held weakly.
+  // They can be looked up using a non-interned value; equality tests know
+  // nothing of the interning types.
+
+  private static PrimitiveInternTable</*@Interned*/ Integer> internedIntegers;
+  private static PrimitiveInternTable</*@Interned*/ Long> internedLongs;
+  private static InternTable<int /*@Interned*/ [],int /*@Interned*/ []> internedIntArrays;
+  private static InternTable<long /*@Interned*/ [],long /*@Interned*/ []> internedLongArrays;
+  private static PrimitiveInternTable</*@Interned*/ Double> internedDoubles;
+  private static /*@Interned*/ Double internedDoubleNaN;
+  private static /*@Interned*/ Double internedDoubleZero;
+  private static InternTable<double /*@Interned*/ [],double /*@Interned*/ []> internedDoubleArrays;
+  private static InternTable</*@Nullable*/ /*@Interned*/ String /*@Interned*/ [],/*@Nullable*/ /*@Interned*/ String /*@Interned*/ []> internedStringArrays;
+  private static InternTable</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ [],/*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []> internedObjectArrays;
+  private static InternTable<SequenceAndIndices<int /*@Interned*/ []>,int /*@Interned*/ []> internedIntSequenceAndIndices;
+  private static InternTable<SequenceAndIndices<long /*@Interned*/ []>,long /*@Interned*/ []> internedLongSequenceAndIndices;
+  private static InternTable<SequenceAndIndices<double /*@Interned*/ []>,double /*@Interned*/ []> internedDoubleSequenceAndIndices;
+  private static InternTable<SequenceAndIndices</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>,/*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []> internedObjectSequenceAndIndices;
+  private static InternTable<SequenceAndIndices</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>,/*@Nullable*/ /*@Interned*/ String /*@Interned*/ []> internedStringSequenceAndIndices;
+
+  // Each sequence holds its prefix strongly, so a prefix stays in the
+  // table as long as some extension of it does.
+  private static InternTable<SharedPrefixSequence<?>,SharedPrefixSequence<?>> internedSharedPrefixSequences;
+
+  // Tables for the types registered by registerType, keyed by class.
+  private static final Map<Class<?>,InternTable<Object,Object>> registeredTables
+    = new ConcurrentHashMap<Class<?>,InternTable<Object,Object>>();
+
+  // All of the above tables, for operations that apply to every table.
+  // Replaced (not modified) by registerType, under the Intern.class lock.
+  private static volatile List<AbstractInternTable> allTables;
+
+  static {
+    internedIntegers = new PrimitiveInternTable</*@Interned*/ Integer>("Integer", 16);
+    internedLongs = new PrimitiveInternTable</*@Interned*/ Long>("Long", 24);
+    internedIntArrays = new InternTable<int /*@Interned*/ [],int /*@Interned*/ []>("int[]", INT_ARRAY_HASHER);
+    internedLongArrays = new InternTable<long /*@Interned*/ [],long /*@Interned*/ []>("long[]", LONG_ARRAY_HASHER);
+    internedDoubles = new PrimitiveInternTable</*@Interned*/ Double>("Double", 24);
+    internedDoubleNaN = new /*@Interned*/ Double(Double.NaN);
+    internedDoubleZero = new /*@Interned*/ Double(0);
+    internedDoubleArrays = new InternTable<double /*@Interned*/ [],double /*@Interned*/ []>("double[]", DOUBLE_ARRAY_HASHER);
+    internedStringArrays = new InternTable</*@Nullable*/ /*@Interned*/ String /*@Interned*/ [],/*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>("String[]", STRING_ARRAY_HASHER);
+    internedObjectArrays = new InternTable</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ [],/*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>("Object[]", OBJECT_ARRAY_HASHER);
+    internedIntSequenceAndIndices = new InternTable<SequenceAndIndices<int /*@Interned*/ []>,int /*@Interned*/ []>("int[] subsequence", new SequenceAndIndicesHasher<int /*@Interned*/ []>());
+    internedLongSequenceAndIndices = new InternTable<SequenceAndIndices<long /*@Interned*/ []>,long /*@Interned*/ []>("long[] subsequence", new SequenceAndIndicesHasher<long /*@Interned*/ []>());
+    internedDoubleSequenceAndIndices = new InternTable<SequenceAndIndices<double /*@Interned*/ []>,double /*@Interned*/ []>("double[] subsequence", new SequenceAndIndicesHasher<double /*@Interned*/ []>());
+    internedObjectSequenceAndIndices = new InternTable<SequenceAndIndices</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>,/*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>("Object[] subsequence", new SequenceAndIndicesHasher</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>());
+    internedStringSequenceAndIndices = new InternTable<SequenceAndIndices</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>,/*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>("String[] subsequence", new SequenceAndIndicesHasher</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>());
+    internedSharedPrefixSequences = new InternTable<SharedPrefixSequence<?>,SharedPrefixSequence<?>>("shared-prefix sequence", new SharedPrefixHasher());
+    allTables = Arrays.<AbstractInternTable>asList(internedIntegers, internedLongs, internedIntArrays, internedLongArrays, internedDoubles, internedDoubleArrays, internedStringArrays, internedObjectArrays, internedIntSequenceAndIndices, internedLongSequenceAndIndices, internedDoubleSequenceAndIndices, internedObjectSequenceAndIndices, internedStringSequenceAndIndices, internedSharedPrefixSequences);
+  }
+
+  /**
+   * Sets the number of independently-locked segments into which each
+   * interning table is split.  All the intern methods of this class are
+   * thread-safe; with a concurrency level of 1 (the default), every
+   * operation on a given table takes the same lock.  A higher level lets
+   * that many threads intern values of the same type in parallel, at the
+   * cost of a little extra memory per table.  The canonicalization
+   * guarantee and the weak-reachability semantics are the same at every
+   * level.
+   * <p>
+   * Existing interned values are retained.  This method must not be
+   * called while other threads are interning values.
+   * @param level the number of segments per table; rounded up to a
+   * power of two
+   **/
+  public static synchronized void setConcurrencyLevel(int level) {
+    if (level < 1) {
+      throw new IllegalArgumentException("Bad concurrency level: " + level);
+    }
+    int numSegments = 1;
+    while (numSegments < level && numSegments < (1 << 16)) {
+      numSegments <<= 1;
+    }
+    for (AbstractInternTable table : allTables) {
+      table.setConcurrencyLevel(numSegments);
+    }
+    concurrencyLevel = numSegments;
+  }
+
+  /** The number of segments in each table.  Guarded by Intern.class. */
+  private static int concurrencyLevel = 1;
+
+  /**
+   * Sets how many canonical values of the given type are held strongly,
+   * in addition to the weak references that every table holds.  The
+   * most recently interned values are kept, so a value that is
+   * repeatedly interned, dropped, and re-interned remains canonical
+   * across garbage collections instead of being reclaimed and created
+   * again.  A capacity of 0 (the default) disables the hot set, so that
+   * every canonical value is reclaimed as soon as the client drops it.
+   * @param type the type of canonical values:  one of Integer, Long,
+   * Double, int[], long[], double[], String[], or Object[], or a type
+   * passed to {@link #registerType(Class, Hasher)}
+   * @param capacity the number of values to hold strongly
+   **/
+  public static synchronized void setHotSetCapacity(Class<?> type, int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Bad hot set capacity: " + capacity);
+    }
+    tableFor(type).setHotSetCapacity(capacity);
+  }
+
+  /**
+   * Returns the number of canonical values of the given type that are
+   * held strongly.
+   * @param type the type of canonical values
+   * @return the hot set capacity for type
+   * @see #setHotSetCapacity(Class, int)
+   **/
+  public static synchronized int hotSetCapacity(Class<?> type) {
+    return tableFor(type).hotSetCapacity();
+  }
+
+  private static AbstractInternTable tableFor(Class<?> type) {
+    if (type == Integer.class) {
+      return internedIntegers;
+    } else if (type == Long.class) {
+      return internedLongs;
+    } else if (type == Double.class) {
+      return internedDoubles;
+    } else if (type == int[].class) {
+      return internedIntArrays;
+    } else if (type == long[].class) {
+      return internedLongArrays;
+    } else if (type == double[].class) {
+      return internedDoubleArrays;
+    } else if (type == String[].class) {
+      return internedStringArrays;
+    } else if (type == Object[].class) {
+      return internedObjectArrays;
+    } else if (registeredTables.containsKey(type)) {
+      return registeredTables.get(type);
+    } else {
+      throw new IllegalArgumentException("No interning table for " + type);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Statistics
+  ///
+
+  /**
+   * Returns a snapshot of the usage statistics of each interning table:
+   * how many lookups it has served, how many found an existing canonical
+   * value, how many values the garbage collector has reclaimed, and how
+   * much space sharing is estimated to have saved.
+   * @return a snapshot of the statistics of every interning table
+   * @see #registerMXBean()
+   **/
+  public static List<InternStatistics> statistics() {
+    List<InternStatistics> result = new ArrayList<InternStatistics>();
+    for (AbstractInternTable table : allTables) {
+      result.add(table.statistics());
+    }
+    return result;
+  }
+
+  /**
+   * Resets the lookup, hit, and bytes-saved counters of every interning
+   * table.
+   **/
+  public static void resetStatistics() {
+    for (AbstractInternTable table : allTables) {
+      table.resetStatistics();
+    }
+  }
+
+  /** The name under which {@link #registerMXBean()} registers the MXBean. */
+  public static final String MXBEAN_NAME = "plume:type=Intern";
+
+  /** The MXBean that reports on the interning tables. */
+  private static final class InternMXBeanImpl implements InternMXBean {
+    public InternStatistics[] getStatistics() {
+      List<InternStatistics> stats = statistics();
+      return stats.toArray(new InternStatistics[stats.size()]);
+    }
+    public long getEstimatedBytesSaved() {
+      long result = 0;
+      for (InternStatistics stats : statistics()) {
+        result += stats.getEstimatedBytesSaved();
+      }
+      return result;
+    }
+    public int getConcurrencyLevel() {
+      synchronized (Intern.class) {
+        return concurrencyLevel;
+      }
+    }
+    public void resetStatistics() {
+      Intern.resetStatistics();
+    }
+  }
+
+  /**
+   * Registers an {@link InternMXBean} with the platform MBean server,
+   * under the name {@link #MXBEAN_NAME}, so that the statistics of the
+   * interning tables can be monitored with tools such as JConsole.
+   * Does nothing if the MXBean is already registered.
+   **/
+  public static synchronized void registerMXBean() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(MXBEAN_NAME);
+      if (! server.isRegistered(name)) {
+        server.registerMBean(new InternMXBeanImpl(), name);
+      }
+    } catch (JMException e) {
+      throw new Error("Could not register " + MXBEAN_NAME, e);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Snapshots
+  ///
+
+  // A snapshot file is a header (SNAPSHOT_MAGIC, SNAPSHOT_VERSION),
+  // followed by tagged sections, followed by SECTION_END.  Each section is
+  // a tag byte, an element count, and the elements.  Strings are stored
+  // once each, in the SECTION_STRINGS pool, as a byte count and UTF-8
+  // bytes; a String[] is stored as indices into the pool, with -1 for
+  // null.  Every other array is its length followed by its elements.
+  // All numbers are big-endian, as written by DataOutputStream.
+
+  private static final int SNAPSHOT_MAGIC = 0x706c4954; // "plIT"
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private static final byte SECTION_END = 0;
+  private static final byte SECTION_INTEGERS = 1;
+  private static final byte SECTION_LONGS = 2;
+  private static final byte SECTION_DOUBLES = 3;
+  private static final byte SECTION_INT_ARRAYS = 4;
+  private static final byte SECTION_LONG_ARRAYS = 5;
+  private static final byte SECTION_DOUBLE_ARRAYS = 6;
+  private static final byte SECTION_STRINGS = 7;
+  private static final byte SECTION_STRING_ARRAYS = 8;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Writes the canonical Integer, Long, Double, int[], long[], double[],
+   * and String[] values to a file in a compact binary format, so that a
+   * later run can start with the same canonical values by calling
+   * {@link #loadSnapshot(File)}.  Object[] values and subsequences are
+   * not saved.
+   * @param file the file to write
+   * @throws IOException if the file cannot be written
+   **/
+  public static void saveSnapshot(File file) throws IOException {
+    List<Integer> integers = toList(integers());
+    List<Long> longs = toList(longs());
+    List<Double> doubles = toList(doubles());
+    List<int[]> intArrays = toList(intArrays());
+    List<long[]> longArrays = toList(longArrays());
+    List<double[]> doubleArrays = toList(doubleArrays());
+    List</*@Nullable*/ String[]> stringArrays = toList(stringArrays());
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+
+      out.writeByte(SECTION_INTEGERS);
+      out.writeInt(integers.size());
+      for (Integer i : integers) {
+        out.writeInt(i.intValue());
+      }
+
+      out.writeByte(SECTION_LONGS);
+      out.writeInt(longs.size());
+      for (Long l : longs) {
+        out.writeLong(l.longValue());
+      }
+
+      out.writeByte(SECTION_DOUBLES);
+      out.writeInt(doubles.size());
+      for (Double d : doubles) {
+        out.writeLong(Double.doubleToRawLongBits(d.doubleValue()));
+      }
+
+      out.writeByte(SECTION_INT_ARRAYS);
+      out.writeInt(intArrays.size());
+      for (int[] a : intArrays) {
+        out.writeInt(a.length);
+        for (int elt : a) {
+          out.writeInt(elt);
+        }
+      }
+
+      out.writeByte(SECTION_LONG_ARRAYS);
+      out.writeInt(longArrays.size());
+      for (long[] a : longArrays) {
+        out.writeInt(a.length);
+        for (long elt : a) {
+          out.writeLong(elt);
+        }
+      }
+
+      out.writeByte(SECTION_DOUBLE_ARRAYS);
+      out.writeInt(doubleArrays.size());
+      for (double[] a : doubleArrays) {
+        out.writeInt(a.length);
+        for (double elt : a) {
+          out.writeLong(Double.doubleToRawLongBits(elt));
+        }
+      }
+
+      Map<String,Integer> stringIndices = new LinkedHashMap<String,Integer>();
+      for (String[] a : stringArrays) {
+        for (String elt : a) {
+          if (elt != null && ! stringIndices.containsKey(elt)) {
+            stringIndices.put(elt, stringIndices.size());
+          }
+        }
+      }
+      out.writeByte(SECTION_STRINGS);
+      out.writeInt(stringIndices.size());
+      for (String str : stringIndices.keySet()) {
+        byte[] bytes = str.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      out.writeByte(SECTION_STRING_ARRAYS);
+      out.writeInt(stringArrays.size());
+      for (String[] a : stringArrays) {
+        out.writeInt(a.length);
+        for (String elt : a) {
+          out.writeInt((elt == null) ? -1 : stringIndices.get(elt).intValue());
+        }
+      }
+
+      out.writeByte(SECTION_END);
+    }
+  }
+
+  /**
+   * Interns every value in a file written by {@link #saveSnapshot(File)},
+   * reading the file through a memory mapping.  A value that is already
+   * interned keeps its existing canonical representative.
+   * <p>
+   *
+   * The tables hold values weakly, so the loaded values remain canonical
+   * only as long as they are reachable:  the caller should retain the
+   * returned list (or enable a hot set; see
+   * {@link #setHotSetCapacity(Class, int)}) for as long as the values
+   * are needed.
+   * @param file a file written by saveSnapshot
+   * @return the canonical values, in the order they appear in the file
+   * @throws IOException if the file cannot be read or is not a snapshot
+   **/
+  public static List<Object> loadSnapshot(File file) throws IOException {
+    List<Object> result = new ArrayList<Object>();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot file is too large to map: " + file);
+      }
+      ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buf.getInt() != SNAPSHOT_MAGIC || buf.getInt() != SNAPSHOT_VERSION) {
+        throw new IOException("Not an interning snapshot: " + file);
+      }
+      String[] strings = new String[0];
+      byte tag;
+      while ((tag = buf.get()) != SECTION_END) {
+        int count = buf.getInt();
+        switch (tag) {
+        case SECTION_INTEGERS: {
+          Integer[] values = new Integer[count];
+          for (int i=0; i<count; i++) {
+            values[i] = Integer.valueOf(buf.getInt());
+          }
+          result.addAll(Arrays.asList(internAll(values)));
+          break;
+        }
+        case SECTION_LONGS: {
+          Long[] values = new Long[count];
+          for (int i=0; i<count; i++) {
+            values[i] = Long.valueOf(buf.getLong());
+          }
+          result.addAll(Arrays.asList(internAll(values)));
+          break;
+        }
+        case SECTION_DOUBLES: {
+          Double[] values = new Double[count];
+          for (int i=0; i<count; i++) {
+            values[i] = Double.valueOf(Double.longBitsToDouble(buf.getLong()));
+          }
+          result.addAll(Arrays.asList(internAll(values)));
+          break;
+        }
+        case SECTION_INT_ARRAYS: {
+          int[][] values = new int[count][];
+          for (int i=0; i<count; i++) {
+            values[i] = new int[buf.getInt()];
+            buf.asIntBuffer().get(values[i]);
+            buf.position(buf.position() + 4 * values[i].length);
+          }
+          result.addAll(Arrays.asList(internAll(values)));
+          break;
+        }
+        case SECTION_LONG_ARRAYS: {
+          long[][] values = new long[count][];
+          for (int i=0; i<count; i++) {
+            values[i] = new long[buf.getInt()];
+            buf.asLongBuffer().get(values[i]);
+            buf.position(buf.position() + 8 * values[i].length);
+          }
+          result.addAll(Arrays.asList(internAll(values)));
+          break;
+        }
+        case SECTION_DOUBLE_ARRAYS: {
+          double[][] values = new double[count][];
+          for (int i=0; i<count; i++) {
+            values[i] = new double[buf.getInt()];
+            buf.asDoubleBuffer().get(values[i]);
+            buf.position(buf.position() + 8 * values[i].length);
+          }
+          result.addAll(Arrays.asList(internAll(values)));
+          break;
+        }
+        case SECTION_STRINGS: {
+          strings = new String[count];
+          for (int i=0; i<count; i++) {
+            byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            strings[i] = new String(bytes, UTF_8).intern();
+          }
+          break;
+        }
+        case SECTION_STRING_ARRAYS: {
+          String[][] values = new String[count][];
+          for (int i=0; i<count; i++) {
+            values[i] = new String[buf.getInt()];
+            for (int j=0; j<values[i].length; j++) {
+              int index = buf.getInt();
+              values[i][j] = (index == -1) ? null : strings[index];
+            }
+          }
+          result.addAll(Arrays.asList(internAll(values)));
+          break;
+        }
+        default:
+          throw new IOException("Bad section " + tag + " in interning snapshot " + file);
+        }
+      }
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+      throw new IOException("Corrupt interning snapshot: " + file, e);
+    }
+    return result;
+  }
 
-  static {
-    internedIntegers = new WeakHasherMap</*@Interned*/ Integer,WeakReference</*@Interned*/ Integer>>(new IntegerHasher());
-    internedLongs = new WeakHasherMap</*@Interned*/ Long,WeakReference</*@Interned*/ Long>>(new LongHasher());
-    internedIntArrays = new WeakHasherMap<int /*@Interned*/ [],WeakReference<int /*@Interned*/ []>>(new IntArrayHasher());
-    internedLongArrays = new WeakHasherMap<long /*@Interned*/ [],WeakReference<long /*@Interned*/ []>>(new LongArrayHasher());
-    internedDoubles = new WeakHasherMap</*@Interned*/ Double,WeakReference</*@Interned*/ Double>>(new DoubleHasher());
-    internedDoubleNaN = new /*@Interned*/ Double(Double.NaN);
-    internedDoubleZero = new /*@Interned*/ Double(0);
-    internedDoubleArrays = new WeakHasherMap<double /*@Interned*/ [],WeakReference<double /*@Interned*/ []>>(new DoubleArrayHasher());
-    internedStringArrays = new WeakHasherMap</*@Nullable*/ /*@Interned*/ String /*@Interned*/ [],WeakReference</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>>(new StringArrayHasher());
-    internedObjectArrays = new WeakHasherMap</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ [],WeakReference</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>>(new ObjectArrayHasher());
-    internedIntSequenceAndIndices = new WeakHasherMap<SequenceAndIndices<int /*@Interned*/ []>,WeakReference<int /*@Interned*/ []>>(new SequenceAndIndicesHasher<int /*@Interned*/ []>());
-    internedLongSequenceAndIndices = new WeakHasherMap<SequenceAndIndices<long /*@Interned*/ []>,WeakReference<long /*@Interned*/ []>>(new SequenceAndIndicesHasher<long /*@Interned*/ []>());
-    internedDoubleSequenceAndIndices = new WeakHasherMap<SequenceAndIndices<double /*@Interned*/ []>,WeakReference<double /*@Interned*/ []>>(new SequenceAndIndicesHasher<double /*@Interned*/ []>());
-    internedObjectSequenceAndIndices = new WeakHasherMap<SequenceAndIndices</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>,WeakReference</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>>(new SequenceAndIndicesHasher</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>());
-    internedStringSequenceAndIndices = new WeakHasherMap<SequenceAndIndices</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>,WeakReference</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>>(new SequenceAndIndicesHasher</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>());
+  private static <T> List<T> toList(Iterator<T> itor) {
+    List<T> result = new ArrayList<T>();
+    while (itor.hasNext()) {
+      result.add(itor.next());
+    }
+    return result;
   }
 
   // For testing only
@@ -308,14 +1621,14 @@ public final class Intern {
   public static int numDoubleArrays() { return internedDoubleArrays.size(); }
   public static int numStringArrays() { return internedStringArrays.size(); }
   public static int numObjectArrays() { return internedObjectArrays.size(); }
-  public static Iterator</*@Interned*/ Integer> integers() { return internedIntegers.keySet().iterator(); }
-  public static Iterator</*@Interned*/ Long> longs() { return internedLongs.keySet().iterator(); }
-  public static Iterator<int /*@Interned*/ []> intArrays() { return internedIntArrays.keySet().iterator(); }
-  public static Iterator<long /*@Interned*/ []> longArrays() { return internedLongArrays.keySet().iterator(); }
-  public static Iterator</*@Interned*/ Double> doubles() { return internedDoubles.keySet().iterator(); }
-  public static Iterator<double /*@Interned*/ []> doubleArrays() { return internedDoubleArrays.keySet().iterator(); }
-  public static Iterator</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []> stringArrays() { return internedStringArrays.keySet().iterator(); }
-  public static Iterator</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []> objectArrays() { return internedObjectArrays.keySet().iterator(); }
+  public static Iterator</*@Interned*/ Integer> integers() { return internedIntegers.values(); }
+  public static Iterator</*@Interned*/ Long> longs() { return internedLongs.values(); }
+  public static Iterator<int /*@Interned*/ []> intArrays() { return internedIntArrays.keys(); }
+  public static Iterator<long /*@Interned*/ []> longArrays() { return internedLongArrays.keys(); }
+  public static Iterator</*@Interned*/ Double> doubles() { return internedDoubles.values(); }
+  public static Iterator<double /*@Interned*/ []> doubleArrays() { return internedDoubleArrays.keys(); }
+  public static Iterator</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []> stringArrays() { return internedStringArrays.keys(); }
+  public static Iterator</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []> objectArrays() { return internedObjectArrays.keys(); }
 
   // Interns a String.
   // Delegates to the builtin String.intern() method.  Provided for
@@ -353,15 +1666,9 @@ public final class Intern {
   // the same).  This does not currently take advantage of that.
   @SuppressWarnings({"interning", "purity"}) // interning implementation
   /*@Pure*/ public static /*@Interned*/ Integer intern(Integer a) {
-    WeakReference</*@Interned*/ Integer> lookup = internedIntegers.get(a);
-    if (lookup != null) {
-      return lookup.get();
-    } else {
-      @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
-      /*@Interned*/ Integer result = (/*@Interned*/ Integer) a;
-      internedIntegers.put(result, new WeakReference</*@Interned*/ Integer>(result));
-      return result;
-    }
+    @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
+    /*@Interned*/ Integer result = (/*@Interned*/ Integer) a;
+    return internedIntegers.putIfAbsent(a.intValue(), result);
   }
 
   // Not sure whether this convenience method is really worth it.
@@ -369,8 +1676,14 @@ public final class Intern {
    * @param i the value to intern
    * @return an interned Integer with value i
    */
+  // Does not box i if an Integer with value i is already interned.
+  @SuppressWarnings("interning") // interning implementation
   public static /*@Interned*/ Integer internedInteger(int i) {
-    return intern(Integer.valueOf(i));
+    /*@Interned*/ Integer result = internedIntegers.get(i);
+    if (result != null) {
+      return result;
+    }
+    return internedIntegers.putAfterMiss(i, Integer.valueOf(i));
   }
 
   // Not sure whether this convenience method is really worth it.
@@ -394,15 +1707,9 @@ public final class Intern {
   // the same).  This could take advantage of that.
   @SuppressWarnings({"interning", "purity"})
   /*@Pure*/ public static /*@Interned*/ Long intern(Long a) {
-    WeakReference</*@Interned*/ Long> lookup =  internedLongs.get(a);
-    if (lookup != null) {
-      return lookup.get();
-    } else {
-      @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
-      /*@Interned*/ Long result = (/*@Interned*/ Long) a;
-      internedLongs.put(result, new WeakReference</*@Interned*/ Long>(result));
-      return result;
-    }
+    @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
+    /*@Interned*/ Long result = (/*@Interned*/ Long) a;
+    return internedLongs.putIfAbsent(a.longValue(), result);
   }
 
   // Not sure whether this convenience method is really worth it.
@@ -410,8 +1717,14 @@ public final class Intern {
    * @param i the value to intern
    * @return an interned Integer with value i
    */
+  // Does not box i if a Long with value i is already interned.
+  @SuppressWarnings("interning") // interning implementation
   public static /*@Interned*/ Long internedLong(long i) {
-    return intern(Long.valueOf(i));
+    /*@Interned*/ Long result = internedLongs.get(i);
+    if (result != null) {
+      return result;
+    }
+    return internedLongs.putAfterMiss(i, Long.valueOf(i));
   }
 
   // Not sure whether this convenience method is really worth it.
@@ -442,15 +1755,9 @@ public final class Intern {
     // stack.fillInStackTrace();
     // stack.printStackTrace();
 
-    WeakReference<int /*@Interned*/ []> lookup = internedIntArrays.get(a);
-    if (lookup != null) {
-      return lookup.get();
-    } else {
-      @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
-      /*@Interned*/ int[] result = (int /*@Interned*/ []) a;
-      internedIntArrays.put(result, new WeakReference<int /*@Interned*/ []>(result));
-      return result;
-    }
+    @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
+    /*@Interned*/ int[] result = (int /*@Interned*/ []) a;
+    return internedIntArrays.putIfAbsent(result, result);
   }
 
   /**
@@ -464,15 +1771,9 @@ public final class Intern {
   /*@Pure*/ public static long /*@Interned*/ [] intern(long[] a) {
     //System.out.printf ("intern %s %s long[] %s%n", a.getClass(),
     //                   a, Arrays.toString (a));
-    WeakReference<long /*@Interned*/ []> lookup = internedLongArrays.get(a);
-    if (lookup != null) {
-      return lookup.get();
-    } else {
-      @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
-      /*@Interned*/ long[] result = (long /*@Interned*/ []) a;
-      internedLongArrays.put(result, new WeakReference<long /*@Interned*/ []>(result));
-      return result;
-    }
+    @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
+    /*@Interned*/ long[] result = (long /*@Interned*/ []) a;
+    return internedLongArrays.putIfAbsent(result, result);
   }
 
   /**
@@ -492,15 +1793,9 @@ public final class Intern {
     // Double.+0 == Double.-0,  but they compare true via equals()
     if (a.doubleValue() == 0)   // catches both positive and negative zero
       return internedDoubleZero;
-    WeakReference</*@Interned*/ Double> lookup = internedDoubles.get(a);
-    if (lookup != null) {
-      return lookup.get();
-    } else {
-      @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
-      /*@Interned*/ Double result = (/*@Interned*/ Double) a;
-      internedDoubles.put(result, new WeakReference</*@Interned*/ Double>(result));
-      return result;
-    }
+    @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
+    /*@Interned*/ Double result = (/*@Interned*/ Double) a;
+    return internedDoubles.putIfAbsent(Double.doubleToRawLongBits(a.doubleValue()), result);
   }
 
   // Not sure whether this convenience method is really worth it.
@@ -508,8 +1803,19 @@ public final class Intern {
    * @param d the value to intern
    * @return an interned Double with value d
    */
+  // Does not box d if a Double with value d is already interned.
+  @SuppressWarnings("interning") // interning implementation
   public static /*@Interned*/ Double internedDouble(double d) {
-    return intern(Double.valueOf(d));
+    if (Double.isNaN(d))
+      return internedDoubleNaN;
+    if (d == 0)                 // catches both positive and negative zero
+      return internedDoubleZero;
+    long bits = Double.doubleToRawLongBits(d);
+    /*@Interned*/ Double result = internedDoubles.get(bits);
+    if (result != null) {
+      return result;
+    }
+    return internedDoubles.putAfterMiss(bits, Double.valueOf(d));
   }
 
   // Not sure whether this convenience method is really worth it.
@@ -536,15 +1842,9 @@ public final class Intern {
    **/
   @SuppressWarnings({"interning", "purity"})
   /*@Pure*/ public static double /*@Interned*/ [] intern(double[] a) {
-    WeakReference<double /*@Interned*/ []> lookup = internedDoubleArrays.get(a);
-    if (lookup != null) {
-      return lookup.get();
-    } else {
-      @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
-      /*@Interned*/ double[] result = (double /*@Interned*/ []) a;
-      internedDoubleArrays.put(result, new WeakReference<double /*@Interned*/ []>(result));
-      return result;
-    }
+    @SuppressWarnings("cast") // cast is redundant (except in JSR 308)
+    /*@Interned*/ double[] result = (double /*@Interned*/ []) a;
+    return internedDoubleArrays.putIfAbsent(result, result);
   }
 
   /**
@@ -565,14 +1865,8 @@ public final class Intern {
     for (int k = 0; k < a.length; k++)
       assert a[k] == Intern.intern (a[k]);
 
-    WeakReference</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []> lookup = internedStringArrays.get(a);
-    /*@Nullable*/ /*@Interned*/ String /*@Interned*/ [] result;
-    if (lookup != null) {
-      result = lookup.get();
-    } else {
-      result = (/*@Nullable*/ /*@Interned*/ String /*@Interned*/ []) a;
-      internedStringArrays.put(result, new WeakReference</*@Nullable*/ /*@Interned*/ String /*@Interned*/ []>(result));
-    }
+    /*@Nullable*/ /*@Interned*/ String /*@Interned*/ [] result = (/*@Nullable*/ /*@Interned*/ String /*@Interned*/ []) a;
+    result = internedStringArrays.putIfAbsent(result, result);
     @SuppressWarnings("nullness") // Polynull because value = parameter a, so same type & nullness as for parameter a
     /*@PolyNull*/ /*@Interned*/ String /*@Interned*/ [] polyresult = result;
     return polyresult;
@@ -591,15 +1885,8 @@ public final class Intern {
       "purity",
       "cast"}) // cast is redundant (except in JSR 308)
   /*@Pure*/ public static /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] intern(/*@PolyNull*/ /*@Interned*/ Object[] a) {
-    @SuppressWarnings("nullness") // Polynull because value = parameter a, so same type & nullness as for parameter a
-    WeakReference</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []> lookup = internedObjectArrays.get(a);
-    /*@Nullable*/ /*@Interned*/ Object /*@Interned*/ [] result;
-    if (lookup != null) {
-      result = lookup.get();
-    } else {
-      result = (/*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []) a;
-      internedObjectArrays.put(result, new WeakReference</*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []>(result));
-    }
+    /*@Nullable*/ /*@Interned*/ Object /*@Interned*/ [] result = (/*@Nullable*/ /*@Interned*/ Object /*@Interned*/ []) a;
+    result = internedObjectArrays.putIfAbsent(result, result);
     @SuppressWarnings("nullness") // Polynull because value = parameter a, so same type & nullness as for parameter a
     /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] polyresult = result;
     return polyresult;
@@ -609,7 +1896,8 @@ public final class Intern {
   /**
    * Convenince method to intern an Object when we don't know its
    * runtime type.  Its runtime type must be one of the types for
-   * which we have an intern() method, else an exception is thrown.
+   * which we have an intern() method, or a type registered with
+   * {@link #registerType(Class, Hasher)}, else an exception is thrown.
    * If the argument is an array, its elements should themselves be
    * interned.
    * @param a an Object to canonicalize
@@ -641,10 +1929,470 @@ public final class Intern {
       @SuppressWarnings("interning")
       /*@Interned*/ Object[] asArray = (/*@Interned*/ Object[]) a;
       return intern(asArray);
+    } else if (registeredTables.containsKey(a.getClass())) {
+      return internRegistered(a);
+    } else {
+      throw new IllegalArgumentException
+        ("Arguments of type " + a.getClass() + " cannot be interned");
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Bulk interning
+  ///
+
+  // Each of these methods has the same effect as calling the corresponding
+  // intern method on each element, but acquires each table's locks once
+  // per call rather than once per element.
+
+  /**
+   * Replace each element of the array by its interned version.
+   * Side-effects the array, but also returns it.
+   * @param a the array whose elements to intern in place
+   * @return a, whose elements are now interned
+   **/
+  @SuppressWarnings("interning") // side-effects the array in place
+  public static /*@Interned*/ Integer[] internAll(Integer[] a) {
+    internedIntegers.internAll(a, primitiveKeys(a));
+    return a;
+  }
+
+  /**
+   * Replace each element of the array by its interned version.
+   * Side-effects the array, but also returns it.
+   * @param a the array whose elements to intern in place
+   * @return a, whose elements are now interned
+   **/
+  @SuppressWarnings("interning") // side-effects the array in place
+  public static /*@Interned*/ Long[] internAll(Long[] a) {
+    internedLongs.internAll(a, primitiveKeys(a));
+    return a;
+  }
+
+  /**
+   * Replace each element of the array by its interned version.
+   * Side-effects the array, but also returns it.
+   * @param a the array whose elements to intern in place
+   * @return a, whose elements are now interned
+   **/
+  @SuppressWarnings("interning") // side-effects the array in place
+  public static /*@Interned*/ Double[] internAll(Double[] a) {
+    internAllDoubles(a);
+    return a;
+  }
+
+  /**
+   * Replace each element of the array by its interned version.
+   * Side-effects the array, but also returns it.
+   * @param a the array whose elements to intern in place
+   * @return a, whose elements are now interned
+   **/
+  @SuppressWarnings("interning") // side-effects the array in place
+  public static int /*@Interned*/ [][] internAll(int[][] a) {
+    internedIntArrays.internAll(a);
+    return a;
+  }
+
+  /**
+   * Replace each element of the array by its interned version.
+   * Side-effects the array, but also returns it.
+   * @param a the array whose elements to intern in place
+   * @return a, whose elements are now interned
+   **/
+  @SuppressWarnings("interning") // side-effects the array in place
+  public static long /*@Interned*/ [][] internAll(long[][] a) {
+    internedLongArrays.internAll(a);
+    return a;
+  }
+
+  /**
+   * Replace each element of the array by its interned version.
+   * Side-effects the array, but also returns it.
+   * @param a the array whose elements to intern in place
+   * @return a, whose elements are now interned
+   **/
+  @SuppressWarnings("interning") // side-effects the array in place
+  public static double /*@Interned*/ [][] internAll(double[][] a) {
+    internedDoubleArrays.internAll(a);
+    return a;
+  }
+
+  /**
+   * Replace each element of the array by its interned version.
+   * Side-effects the array, but also returns it.
+   * The elements of each String[] should themselves already be interned.
+   * @param a the array whose elements to intern in place
+   * @return a, whose elements are now interned
+   **/
+  @SuppressWarnings("interning") // side-effects the array in place
+  public static /*@Interned*/ String /*@Interned*/ [][] internAll(/*@Interned*/ String[][] a) {
+    for (String[] strings : a) {
+      if (strings != null) {
+        for (int k = 0; k < strings.length; k++)
+          assert strings[k] == Intern.intern (strings[k]);
+      }
+    }
+    internedStringArrays.internAll(a);
+    return a;
+  }
+
+  /**
+   * Replace each element of the list by its interned version, as if by
+   * {@link #intern(Object)}.  Side-effects the list, but also returns it.
+   * The list must support {@link ListIterator#set}.  When all the
+   * elements have the same runtime type, each table's locks are acquired
+   * once rather than once per element.
+   * @param <T> the type of the list elements
+   * @param list the list whose elements to intern in place
+   * @return list, whose elements are now interned
+   **/
+  public static <T> List<T> internAll(List<T> list) {
+    /*@Nullable*/ Object[] a = list.toArray();
+    internAllObjects(a);
+    ListIterator<T> li = list.listIterator();
+    for (int i=0; i<a.length; i++) {
+      li.next();
+      @SuppressWarnings("unchecked") // intern returns an object of the same class
+      T elt = (T) a[i];
+      li.set(elt);
+    }
+    return list;
+  }
+
+  /**
+   * Returns an iterator over the interned versions, as if by
+   * {@link #intern(Object)}, of the elements produced by the given
+   * iterator.  Elements are read and interned a batch at a time, so the
+   * lock-acquisition cost is amortized as in {@link #internAll(List)}.
+   * The returned iterator does not support removal.
+   * @param <T> the type of the elements
+   * @param itor the elements to intern
+   * @return an iterator over the interned elements
+   **/
+  public static <T> Iterator<T> internAll(final Iterator<T> itor) {
+    return new Iterator<T>() {
+      private /*@Nullable*/ Object[] batch = new Object[0];
+      private int next = 0;
+      public boolean hasNext() {
+        return next < batch.length || itor.hasNext();
+      }
+      public T next() {
+        if (next == batch.length) {
+          if (! itor.hasNext()) {
+            throw new NoSuchElementException();
+          }
+          List<T> elts = new ArrayList<T>(BATCH_SIZE);
+          while (elts.size() < BATCH_SIZE && itor.hasNext()) {
+            elts.add(itor.next());
+          }
+          batch = elts.toArray();
+          internAllObjects(batch);
+          next = 0;
+        }
+        @SuppressWarnings("unchecked") // intern returns an object of the same class
+        T result = (T) batch[next];
+        batch[next++] = null;   // don't prolong the lifetime of the element
+        return result;
+      }
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /** The number of elements that internAll(Iterator) interns at a time. */
+  private static final int BATCH_SIZE = 256;
+
+  // Returns the keys under which the elements of a are stored in their
+  // PrimitiveInternTable.  Null elements get an arbitrary key.
+  private static long[] primitiveKeys(/*@Nullable*/ Object[] a) {
+    long[] bits = new long[a.length];
+    for (int i=0; i<a.length; i++) {
+      if (a[i] instanceof Double) {
+        bits[i] = Double.doubleToRawLongBits(((Double) a[i]).doubleValue());
+      } else if (a[i] != null) {
+        bits[i] = ((Number) a[i]).longValue();
+      }
+    }
+    return bits;
+  }
+
+  // Interns every non-null element of a, each of which is a Double.
+  // NaN and zero have canonical values that are not in the table.
+  @SuppressWarnings("interning") // interning implementation
+  private static void internAllDoubles(/*@Nullable*/ Object[] a) {
+    /*@Nullable*/ Object[] ordinary = a.clone();
+    for (int i=0; i<a.length; i++) {
+      if (a[i] == null) {
+        continue;
+      }
+      double d = ((Double) a[i]).doubleValue();
+      if (Double.isNaN(d)) {
+        a[i] = internedDoubleNaN;
+        ordinary[i] = null;
+      } else if (d == 0) {      // catches both positive and negative zero
+        a[i] = internedDoubleZero;
+        ordinary[i] = null;
+      }
+    }
+    internedDoubles.internAll(ordinary, primitiveKeys(ordinary));
+    for (int i=0; i<a.length; i++) {
+      if (ordinary[i] != null) {
+        a[i] = ordinary[i];
+      }
+    }
+  }
+
+  // Interns every element of a in place, as if by intern(Object).  Uses a
+  // bulk operation when all the non-null elements have the same class.
+  private static void internAllObjects(/*@Nullable*/ Object[] a) {
+    Class<?> c = null;
+    for (Object elt : a) {
+      if (elt == null) {
+        continue;
+      }
+      if (c == null) {
+        c = elt.getClass();
+      } else if (c != elt.getClass()) {
+        c = null;
+        break;
+      }
+    }
+    if (c == Integer.class) {
+      internedIntegers.internAll(a, primitiveKeys(a));
+    } else if (c == Long.class) {
+      internedLongs.internAll(a, primitiveKeys(a));
+    } else if (c == Double.class) {
+      internAllDoubles(a);
+    } else if (c == int[].class) {
+      internedIntArrays.internAll(a);
+    } else if (c == long[].class) {
+      internedLongArrays.internAll(a);
+    } else if (c == double[].class) {
+      internedDoubleArrays.internAll(a);
     } else {
+      for (int i=0; i<a.length; i++) {
+        a[i] = intern(a[i]);
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Interning other types
+  ///
+
+  /**
+   * Hasher object which hashes and compares objects using their own
+   * hashCode() and equals() methods.
+   * @see Hasher
+   **/
+  private static final class EqualsHasher implements Hasher {
+    public boolean equals(Object a1, Object a2) {
+      return a1.equals(a2);
+    }
+    public int hashCode(Object o) {
+      return o.hashCode();
+    }
+  }
+
+  /**
+   * Makes instances of the given class internable by
+   * {@link #internRegistered(Object)} and {@link #intern(Object)}.  The
+   * instances are held in a table with the same properties as the tables
+   * for the built-in types:  it holds canonical values weakly, is split
+   * according to {@link #setConcurrencyLevel(int)}, can have a hot set,
+   * and is included in {@link #statistics()} under the class's name.
+   * <p>
+   *
+   * The instances must be immutable, at least in every respect that the
+   * hasher examines.  Subclasses of type are not registered:  interning
+   * dispatches on the exact run-time class of a value.
+   * @param type the class whose instances to intern
+   * @param hasher the equality and hash functions for instances of type,
+   * or null to use their own equals() and hashCode() methods
+   * @throws IllegalArgumentException if type is already registered or is
+   * one of the types that this class interns without registration
+   **/
+  public static synchronized void registerType(Class<?> type, /*@Nullable*/ Hasher hasher) {
+    if (type == String.class || type.isArray()
+        || type == Integer.class || type == Long.class || type == Double.class) {
+      throw new IllegalArgumentException("Cannot register built-in type " + type);
+    }
+    if (registeredTables.containsKey(type)) {
+      throw new IllegalArgumentException("Type already registered: " + type);
+    }
+    InternTable<Object,Object> table
+      = new InternTable<Object,Object>(type.getName(), (hasher == null) ? new EqualsHasher() : hasher);
+    table.setConcurrencyLevel(concurrencyLevel);
+    registeredTables.put(type, table);
+    List<AbstractInternTable> newTables = new ArrayList<AbstractInternTable>(allTables);
+    newTables.add(table);
+    allTables = newTables;
+  }
+
+  /**
+   * Intern (canonicalize) an instance of a class that was registered
+   * with {@link #registerType(Class, Hasher)}.
+   * Return a canonical representation for the value.
+   * @param <T> the type of the value
+   * @param a the value to canonicalize
+   * @return a canonical representation for the value
+   * @throws IllegalArgumentException if the class of a is not registered
+   **/
+  @SuppressWarnings({"interning", "purity"})
+  /*@Pure*/ public static <T> /*@Interned*/ T internRegistered(T a) {
+    InternTable<Object,Object> table = registeredTables.get(a.getClass());
+    if (table == null) {
       throw new IllegalArgumentException
         ("Arguments of type " + a.getClass() + " cannot be interned");
     }
+    @SuppressWarnings("unchecked") // a canonical value has the class of the values equal to it
+    T result = (T) table.putIfAbsent(a, a);
+    return result;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Shared-prefix sequences
+  ///
+
+  /**
+   * A mutable lookup key for the shared-prefix table, standing for the
+   * sequence with the given base and last chunk.  Lets a lookup that
+   * finds an existing sequence avoid allocating a new one.
+   **/
+  private static final class PrefixProbe {
+    /*@Nullable*/ SharedPrefixSequence<?> base;
+    Object tail = new Object[0];
+  }
+
+  /**
+   * Hasher object which hashes and compares SharedPrefixSequence objects
+   * (and PrefixProbe objects) by the identity of their base and the
+   * values of their last chunk.
+   * @see Hasher
+   **/
+  private static final class SharedPrefixHasher implements Hasher {
+    public boolean equals(Object a1, Object a2) {
+      if (a1 instanceof PrefixProbe) {
+        return ((PrefixProbe) a1).base == ((SharedPrefixSequence<?>) a2).base
+          && SharedPrefixSequence.tailsEqual(((PrefixProbe) a1).tail, ((SharedPrefixSequence<?>) a2).tail);
+      } else if (a2 instanceof PrefixProbe) {
+        return equals(a2, a1);
+      } else {
+        return ((SharedPrefixSequence<?>) a1).base == ((SharedPrefixSequence<?>) a2).base
+          && SharedPrefixSequence.tailsEqual(((SharedPrefixSequence<?>) a1).tail, ((SharedPrefixSequence<?>) a2).tail);
+      }
+    }
+    public int hashCode(Object o) {
+      if (o instanceof PrefixProbe) {
+        return SharedPrefixSequence.hashCode(((PrefixProbe) o).base, ((PrefixProbe) o).tail);
+      }
+      return ((SharedPrefixSequence<?>) o).hash();
+    }
+  }
+
+  /**
+   * Intern (canonicalize) an int[] as a sequence that shares storage
+   * with every other such sequence that has a common prefix.
+   * This is an alternative to {@link #intern(int[])} for large sets of
+   * arrays with long common prefixes; see {@link SharedPrefixSequence}
+   * for when it saves space.
+   * @param a the array to canonicalize
+   * @return the canonical shared-prefix sequence with the elements of a
+   * @see SharedPrefixSequence
+   **/
+  public static SharedPrefixSequence</*@Interned*/ Integer> internSharedPrefix(int[] a) {
+    SharedPrefixSequence</*@Interned*/ Integer> result = SharedPrefixSequence.empty();
+    PrefixProbe probe = new PrefixProbe();
+    for (int i=0; i<a.length; i+=SharedPrefixSequence.CHUNK) {
+      int[] chunk = Arrays.copyOfRange(a, i, Math.min(a.length, i + SharedPrefixSequence.CHUNK));
+      result = internChunk(result, chunk, probe);
+    }
+    return result;
+  }
+
+  /**
+   * Intern (canonicalize) a String[] as a sequence that shares storage
+   * with every other such sequence that has a common prefix.
+   * This is an alternative to {@link #intern(String[])} for large sets of
+   * arrays with long common prefixes.
+   * The elements should themselves already be interned.
+   * @param a the array to canonicalize
+   * @return the canonical shared-prefix sequence with the elements of a
+   * @see SharedPrefixSequence
+   **/
+  public static SharedPrefixSequence</*@Nullable*/ /*@Interned*/ String> internSharedPrefix(/*@Nullable*/ /*@Interned*/ String[] a) {
+    SharedPrefixSequence</*@Nullable*/ /*@Interned*/ String> result = SharedPrefixSequence.empty();
+    PrefixProbe probe = new PrefixProbe();
+    for (String elt : a) {
+      assert elt == Intern.intern (elt);
+    }
+    for (int i=0; i<a.length; i+=SharedPrefixSequence.CHUNK) {
+      Object[] chunk = Arrays.copyOfRange(a, i, Math.min(a.length, i + SharedPrefixSequence.CHUNK), Object[].class);
+      result = internChunk(result, chunk, probe);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the canonical sequence consisting of prefix followed by last.
+   * The element should itself be canonical, as are the elements of the
+   * sequences returned by {@link #internSharedPrefix(int[])} and
+   * {@link #internSharedPrefix(String[])}; elements are compared using
+   * their equals() methods.
+   * @param <E> the type of the elements
+   * @param prefix a canonical sequence
+   * @param last the element to append to prefix
+   * @return the canonical sequence of prefix followed by last
+   **/
+  public static <E> SharedPrefixSequence<E> internAppend(SharedPrefixSequence<E> prefix, /*@Nullable*/ E last) {
+    if (prefix.length() % SharedPrefixSequence.CHUNK == 0) {
+      // prefix is a whole number of chunks; start a new one.
+      return internChunk(prefix, SharedPrefixSequence.toTail(new Object[] { last }), new PrefixProbe());
+    }
+    // Extend the last chunk of prefix.
+    SharedPrefixSequence<E> base = prefix.base;
+    assert base != null : "@AssumeAssertion(nullness): prefix is not empty";
+    Object tail = prefix.tail;
+    int n = SharedPrefixSequence.tailLength(tail);
+    Object longer;
+    if (tail instanceof int[] && last instanceof Integer) {
+      int[] ints = Arrays.copyOf((int[]) tail, n + 1);
+      ints[n] = ((Integer) last).intValue();
+      longer = ints;
+    } else {
+      /*@Nullable*/ Object[] elts = new Object[n + 1];
+      for (int i=0; i<n; i++) {
+        elts[i] = (tail instanceof int[]) ? (Object) ((int[]) tail)[i] : ((Object[]) tail)[i];
+      }
+      elts[n] = last;
+      longer = elts;
+    }
+    return internChunk(base, longer, new PrefixProbe());
+  }
+
+  /**
+   * Returns the canonical sequence consisting of base followed by the
+   * elements of tail.  The length of base must be a multiple of
+   * SharedPrefixSequence.CHUNK, and tail must be a chunk as described
+   * by SharedPrefixSequence.toTail.
+   **/
+  static <E> SharedPrefixSequence<E> internChunk(SharedPrefixSequence<E> base, Object tail) {
+    return internChunk(base, tail, new PrefixProbe());
+  }
+
+  private static <E> SharedPrefixSequence<E> internChunk(SharedPrefixSequence<E> base, Object tail, PrefixProbe probe) {
+    probe.base = base;
+    probe.tail = tail;
+    @SuppressWarnings("unchecked") // the base of the result is base
+    SharedPrefixSequence<E> result = (SharedPrefixSequence<E>) internedSharedPrefixSequences.get(probe);
+    if (result != null) {
+      return result;
+    }
+    SharedPrefixSequence<E> seq = new SharedPrefixSequence<E>(base, tail);
+    @SuppressWarnings("unchecked") // the base of the result is base
+    SharedPrefixSequence<E> canonical = (SharedPrefixSequence<E>) internedSharedPrefixSequences.putAfterMiss(seq, seq);
+    return canonical;
   }
 
   /**
@@ -658,6 +2406,10 @@ public final class Intern {
    * when there may be many derived variables that are non-canonical,
    * since they are guaranteed to be ==.
    * <p>
+   *
+   * The subsequence is copied only if no equal array has been interned:
+   * the lookup hashes and compares the elements of seq in place.
+   * <p>
    * Requires that seq is already interned.
    * @param seq the sequence whose subsequence should be interned
    * @param start the index of the start of the subsequence to be interned
@@ -667,15 +2419,18 @@ public final class Intern {
   public static int /*@Interned*/ [] internSubsequence (int /*@Interned*/ [] seq, int start, int end) {
     assert Intern.isInterned(seq);
     SequenceAndIndices<int /*@Interned*/ []> sai = new SequenceAndIndices<int /*@Interned*/ []> (seq, start, end);
-    WeakReference<int /*@Interned*/ []> lookup = internedIntSequenceAndIndices.get(sai);
+    int /*@Interned*/ [] lookup = internedIntSequenceAndIndices.get(sai);
     if (lookup != null) {
-      return lookup.get();
-    } else {
-      int[] subseqUninterned = ArraysMDE.subarray(seq, start, end - start);
-      int /*@Interned*/ [] subseq = Intern.intern (subseqUninterned);
-      internedIntSequenceAndIndices.put (sai, new WeakReference<int /*@Interned*/ []>(subseq));
-      return subseq;
+      return lookup;
+    }
+    // Look for an equal array without copying the subsequence.
+    int /*@Interned*/ [] subseq = internedIntArrays.get(sai);
+    if (subseq == null) {
+      @SuppressWarnings({"interning", "cast"}) // interning implementation
+      int /*@Interned*/ [] subseqUninterned = (int /*@Interned*/ []) ArraysMDE.subarray(seq, start, end - start);
+      subseq = internedIntArrays.putAfterMiss(subseqUninterned, subseqUninterned);
     }
+    return internedIntSequenceAndIndices.putAfterMiss(sai, subseq);
   }
 
   /**
@@ -688,15 +2443,18 @@ public final class Intern {
   public static long /*@Interned*/ [] internSubsequence (long /*@Interned*/ [] seq, int start, int end) {
     assert Intern.isInterned(seq);
     SequenceAndIndices<long /*@Interned*/ []> sai = new SequenceAndIndices<long /*@Interned*/ []> (seq, start, end);
-    WeakReference<long /*@Interned*/ []> lookup = internedLongSequenceAndIndices.get(sai);
+    long /*@Interned*/ [] lookup = internedLongSequenceAndIndices.get(sai);
     if (lookup != null) {
-      return lookup.get();
-    } else {
-      long[] subseq_uninterned = ArraysMDE.subarray(seq, start, end - start);
-      long /*@Interned*/ [] subseq = Intern.intern (subseq_uninterned);
-      internedLongSequenceAndIndices.put (sai, new WeakReference<long /*@Interned*/ []>(subseq));
-      return subseq;
+      return lookup;
+    }
+    // Look for an equal array without copying the subsequence.
+    long /*@Interned*/ [] subseq = internedLongArrays.get(sai);
+    if (subseq == null) {
+      @SuppressWarnings({"interning", "cast"}) // interning implementation
+      long /*@Interned*/ [] subseq_uninterned = (long /*@Interned*/ []) ArraysMDE.subarray(seq, start, end - start);
+      subseq = internedLongArrays.putAfterMiss(subseq_uninterned, subseq_uninterned);
     }
+    return internedLongSequenceAndIndices.putAfterMiss(sai, subseq);
   }
 
   /**
@@ -709,15 +2467,18 @@ public final class Intern {
   public static double /*@Interned*/ [] internSubsequence (double /*@Interned*/ [] seq, int start, int end) {
     assert Intern.isInterned(seq);
     SequenceAndIndices<double /*@Interned*/ []> sai = new SequenceAndIndices<double /*@Interned*/ []> (seq, start, end);
-    WeakReference<double /*@Interned*/ []> lookup = internedDoubleSequenceAndIndices.get(sai);
+    double /*@Interned*/ [] lookup = internedDoubleSequenceAndIndices.get(sai);
     if (lookup != null) {
-      return lookup.get();
-    } else {
-      double[] subseq_uninterned = ArraysMDE.subarray(seq, start, end - start);
-      double /*@Interned*/ [] subseq = Intern.intern (subseq_uninterned);
-      internedDoubleSequenceAndIndices.put (sai, new WeakReference<double /*@Interned*/ []>(subseq));
-      return subseq;
+      return lookup;
+    }
+    // Look for an equal array without copying the subsequence.
+    double /*@Interned*/ [] subseq = internedDoubleArrays.get(sai);
+    if (subseq == null) {
+      @SuppressWarnings({"interning", "cast"}) // interning implementation
+      double /*@Interned*/ [] subseq_uninterned = (double /*@Interned*/ []) ArraysMDE.subarray(seq, start, end - start);
+      subseq = internedDoubleArrays.putAfterMiss(subseq_uninterned, subseq_uninterned);
     }
+    return internedDoubleSequenceAndIndices.putAfterMiss(sai, subseq);
   }
 
   /**
@@ -731,17 +2492,23 @@ public final class Intern {
     assert Intern.isInterned(seq);
     SequenceAndIndices</*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ []> sai = new SequenceAndIndices</*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ []> (seq, start, end);
     @SuppressWarnings("nullness")                   // same nullness as key
-    WeakReference</*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ []> lookup = internedObjectSequenceAndIndices.get(sai);
+    /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] lookup = internedObjectSequenceAndIndices.get(sai);
     if (lookup != null) {
-      return lookup.get();
-    } else {
-      /*@PolyNull*/ /*@Interned*/ Object[] subseq_uninterned = ArraysMDE.subarray(seq, start, end - start);
-      /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] subseq = Intern.intern (subseq_uninterned);
+      return lookup;
+    }
+    // Look for an equal array without copying the subsequence.
+    @SuppressWarnings("nullness")                   // same nullness as key
+    /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] subseq = internedObjectArrays.get(sai);
+    if (subseq == null) {
+      @SuppressWarnings({"interning", "cast"}) // interning implementation; elements of seq are interned
+      /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] subseq_uninterned = (/*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ []) ArraysMDE.subarray(seq, start, end - start);
       @SuppressWarnings("nullness") // safe because map does no side effects
-      Object ignore = // assignment just so there is a place to hang the @SuppressWarnings annotation
-      internedObjectSequenceAndIndices.put (sai, new WeakReference</*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ []>(subseq));
-      return subseq;
+      /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] canonical = internedObjectArrays.putAfterMiss(subseq_uninterned, subseq_uninterned);
+      subseq = canonical;
     }
+    @SuppressWarnings("nullness") // safe because map does no side effects
+    /*@PolyNull*/ /*@Interned*/ Object /*@Interned*/ [] result = internedObjectSequenceAndIndices.putAfterMiss(sai, subseq);
+    return result;
   }
 
   /**
@@ -755,17 +2522,23 @@ public final class Intern {
     assert Intern.isInterned(seq);
     SequenceAndIndices</*@PolyNull*/ /*@Interned*/ String /*@Interned*/ []> sai = new SequenceAndIndices</*@PolyNull*/ /*@Interned*/ String /*@Interned*/ []> (seq, start, end);
     @SuppressWarnings("nullness")                   // same nullness as key
-    WeakReference</*@PolyNull*/ /*@Interned*/ String /*@Interned*/ []> lookup = internedStringSequenceAndIndices.get(sai);
+    /*@PolyNull*/ /*@Interned*/ String /*@Interned*/ [] lookup = internedStringSequenceAndIndices.get(sai);
     if (lookup != null) {
-      return lookup.get();
-    } else {
-      /*@PolyNull*/ /*@Interned*/ String[] subseq_uninterned = ArraysMDE.subarray(seq, start, end - start);
-      /*@PolyNull*/ /*@Interned*/ String /*@Interned*/ [] subseq = Intern.intern (subseq_uninterned);
+      return lookup;
+    }
+    // Look for an equal array without copying the subsequence.
+    @SuppressWarnings("nullness")                   // same nullness as key
+    /*@PolyNull*/ /*@Interned*/ String /*@Interned*/ [] subseq = internedStringArrays.get(sai);
+    if (subseq == null) {
+      @SuppressWarnings({"interning", "cast"}) // interning implementation; elements of seq are interned
+      /*@PolyNull*/ /*@Interned*/ String /*@Interned*/ [] subseq_uninterned = (/*@PolyNull*/ /*@Interned*/ String /*@Interned*/ []) ArraysMDE.subarray(seq, start, end - start);
       @SuppressWarnings("nullness") // safe because map does no side effects
-      Object ignore = // assignment just so there is a place to hang the @SuppressWarnings annotation
-      internedStringSequenceAndIndices.put (sai, new WeakReference</*@PolyNull*/ /*@Interned*/ String /*@Interned*/ []>(subseq));
-      return subseq;
+      /*@PolyNull*/ /*@Interned*/ String /*@Interned*/ [] canonical = internedStringArrays.putAfterMiss(subseq_uninterned, subseq_uninterned);
+      subseq = canonical;
     }
+    @SuppressWarnings("nullness") // safe because map does no side effects
+    /*@PolyNull*/ /*@Interned*/ String /*@Interned*/ [] result = internedStringSequenceAndIndices.putAfterMiss(sai, subseq);
+    return result;
   }
 
   /**
@@ -0,0 +1,31 @@
+package plume;
+
+/**
+ * Management interface for the interning tables of {@link Intern}.
+ * Call {@link Intern#registerMXBean()} to publish it through the platform
+ * MBean server, under the name {@link Intern#MXBEAN_NAME}.
+ **/
+public interface InternMXBean {
+
+  /**
+   * Returns a snapshot of the statistics of every interning table.
+   * @return a snapshot of the statistics of every interning table
+   */
+  InternStatistics[] getStatistics();
+
+  /**
+   * Returns the estimated number of bytes saved, summed over all tables.
+   * @return the estimated number of bytes saved by interning
+   */
+  long getEstimatedBytesSaved();
+
+  /**
+   * Returns the number of independently-locked segments in each table.
+   * @return the number of segments in each table
+   * @see Intern#setConcurrencyLevel(int)
+   */
+  int getConcurrencyLevel();
+
+  /** Resets the lookup, hit, and bytes-saved counters of every table. */
+  void resetStatistics();
+}
@@ -0,0 +1,95 @@
+package plume;
+
+import java.beans.ConstructorProperties;
+
+/*>>>
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A snapshot of the usage statistics of one of the tables that
+ * {@link Intern} uses to hold canonical values.  The counts are
+ * cumulative since the table was created or since the last call to
+ * {@link Intern#resetStatistics()}.
+ * <p>
+ *
+ * The estimated number of bytes saved is the sum, over all lookups that
+ * found an existing canonical value, of the approximate size of that
+ * value:  that is the space the client could reclaim by discarding its own
+ * copy and using the canonical one instead.  A table with many lookups but
+ * few bytes saved is pure overhead.
+ *
+ * @see Intern#statistics()
+ * @see InternMXBean
+ **/
+public final class InternStatistics {
+
+  private final String name;
+  private final long lookups;
+  private final long hits;
+  private final long reclaimed;
+  private final int size;
+  private final int capacity;
+  private final long estimatedBytesSaved;
+
+  /**
+   * Creates a new statistics snapshot.
+   * @param name the name of the table
+   * @param lookups the number of lookups
+   * @param hits the number of lookups that found a canonical value
+   * @param reclaimed the number of canonical values reclaimed by the garbage collector
+   * @param size the number of canonical values currently in the table
+   * @param capacity the number of slots in the table
+   * @param estimatedBytesSaved the estimated number of bytes saved by sharing
+   */
+  @ConstructorProperties({"name", "lookups", "hits", "reclaimed", "size", "capacity", "estimatedBytesSaved"})
+  public InternStatistics(String name, long lookups, long hits, long reclaimed, int size, int capacity, long estimatedBytesSaved) {
+    this.name = name;
+    this.lookups = lookups;
+    this.hits = hits;
+    this.reclaimed = reclaimed;
+    this.size = size;
+    this.capacity = capacity;
+    this.estimatedBytesSaved = estimatedBytesSaved;
+  }
+
+  /** @return the name of the table, such as "int[]" */
+  /*@Pure*/ public String getName() { return name; }
+
+  /** @return the number of lookups in the table */
+  /*@Pure*/ public long getLookups() { return lookups; }
+
+  /** @return the number of lookups that found an existing canonical value */
+  /*@Pure*/ public long getHits() { return hits; }
+
+  /** @return the number of lookups that added a new canonical value */
+  /*@Pure*/ public long getMisses() { return lookups - hits; }
+
+  /** @return the fraction of lookups that were hits, or 0 if there were no lookups */
+  /*@Pure*/ public double getHitRate() {
+    return (lookups == 0) ? 0 : ((double) hits) / lookups;
+  }
+
+  /** @return the number of canonical values that have been garbage-collected */
+  /*@Pure*/ public long getReclaimed() { return reclaimed; }
+
+  /** @return the number of canonical values currently in the table */
+  /*@Pure*/ public int getSize() { return size; }
+
+  /** @return the number of slots in the table */
+  /*@Pure*/ public int getCapacity() { return capacity; }
+
+  /** @return the fraction of the table's slots that are in use */
+  /*@Pure*/ public double getLoad() {
+    return (capacity == 0) ? 0 : ((double) size) / capacity;
+  }
+
+  /** @return the estimated number of bytes saved by sharing canonical values */
+  /*@Pure*/ public long getEstimatedBytesSaved() { return estimatedBytesSaved; }
+
+  /*@SideEffectFree*/ public String toString() {
+    return String.format("%s: lookups=%d hits=%d misses=%d reclaimed=%d size=%d capacity=%d saved=%dB",
+                         name, lookups, hits, getMisses(), reclaimed, size, capacity, estimatedBytesSaved);
+  }
+
+}
@@ -0,0 +1,358 @@
+package plume;
+
+import java.io.Serializable;
+import java.util.List;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * LimitedSizeLongSet stores up to some maximum number of unique
+ * long values, at which point its rep is nulled, in order to save space.
+ * <p>
+ * The advantage of this class over LimitedSizeSet&lt;Long&gt; is that
+ * it does not autobox the long values, so it takes less memory, and adding
+ * a value does not allocate a box for it.
+ *
+ * @see LimitedSizeSet
+ * @see LimitedSizeIntSet
+ **/
+public class LimitedSizeLongSet
+  implements Serializable, Cloneable
+{
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261015L;
+
+  // public final int max_values;
+
+  // If null, then at least num_values distinct values have been seen.
+  // The size is not separately stored, because that would take extra space.
+  protected long /*@Nullable*/ [] values;
+  // The number of active elements (equivalently, the first unused index).
+  int num_values;
+
+  // Sets with more than this many values use a hash index for membership
+  // tests; smaller sets are faster to scan linearly.
+  static final int INDEX_THRESHOLD = 32;
+
+  // An open-addressed hash index into values, or null if it has not been
+  // built.  Each slot holds 0 (empty) or 1 plus an index into values.
+  // Its length is a power of two, at least twice values.length.  Not
+  // serialized; rebuilt on first use.
+  private transient int /*@Nullable*/ [] index;
+
+  // If non-zero, the precision of the sketch to create on overflow.
+  private int sketch_precision = 0;
+  // After overflow, if sketch_precision is non-zero, a sketch of every
+  // value added to the set.
+  private /*@Nullable*/ HyperLogLog sketch = null;
+
+  public LimitedSizeLongSet(int max_values) {
+    assert max_values > 0;
+    // this.max_values = max_values;
+    values = new long[max_values];
+    num_values = 0;
+  }
+
+  public void add(long elt) {
+    if (values == null) {
+      if (sketch != null)
+        sketch.add(elt);
+      return;
+    }
+
+    if (values.length > INDEX_THRESHOLD) {
+      int[] idx = index();
+      int slot = slotFor(idx, elt);
+      if (idx[slot] != 0) {
+        return;
+      }
+      if (num_values == values.length) {
+        overflow(elt);
+        return;
+      }
+      values[num_values] = elt;
+      num_values++;
+      idx[slot] = num_values;
+      return;
+    }
+
+    if (contains(elt)) {
+      return;
+    }
+    if (num_values == values.length) {
+      overflow(elt);
+      return;
+    }
+    values[num_values] = elt;
+    num_values++;
+  }
+
+  public void addAll(LimitedSizeLongSet s) {
+    @SuppressWarnings("interning") // optimization; not a subclass of Collection, though
+    boolean sameObject = (this == s);
+    if (sameObject)
+      return;
+    if (repNulled()) {
+      if (sketch != null) {
+        addToSketch(s);
+      }
+      return;
+    }
+    if (s.repNulled()) {
+      int values_length = values.length;
+      if (s.sketch != null) {
+        // Continue approximately, with a sketch of the union.
+        if (sketch_precision == 0) {
+          sketch_precision = s.sketch.precision();
+        }
+        overflow();
+        assert sketch != null : "@AssumeAssertion(nullness): sketch_precision != 0";
+        sketch.merge(s.sketch);
+        num_values = values_length+1;
+        return;
+      }
+      // We don't know whether the elements of this and the argument were
+      // disjoint.  There might be anywhere from max(size(), s.size()) to
+      // (size() + s.size()) elements in the resulting set.
+      if (s.size() > values_length) {
+        num_values = values_length+1;
+        values = null;
+        return;
+      } else {
+        throw new Error("Arg is rep-nulled, so we don't know its values and can't add them to this.");
+      }
+    }
+    for (int i=0; i<s.size(); i++) {
+      assert s.values != null : "@AssumeAssertion(nullness): no relevant side effect:  add's side effects do not affect s.values";
+      add(s.values[i]);
+      if (repNulled()) {
+        if (sketch != null) {
+          continue;             // add the rest to the sketch
+        }
+        return;                 // optimization, not necessary for correctness
+      }
+    }
+  }
+
+  @SuppressWarnings("deterministic") // pure wrt equals() but not ==: throws a new exception
+  /*@Pure*/
+  public boolean contains(long elt) {
+    if (values == null) {
+      throw new UnsupportedOperationException();
+    }
+    if (values.length > INDEX_THRESHOLD) {
+      int[] idx = index();
+      return idx[slotFor(idx, elt)] != 0;
+    }
+    for (int i=0; i < num_values; i++) {
+      if (values[i] == elt) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Nulls the rep because elt does not fit, first moving the values into
+   * a sketch if overflow sketches are enabled.
+   **/
+  private void overflow(long elt) {
+    overflow();
+    num_values++;
+    if (sketch != null) {
+      sketch.add(elt);
+    }
+  }
+
+  @SuppressWarnings("nullness") // values is non-null, by precondition
+  private void overflow() {
+    if (sketch_precision != 0) {
+      HyperLogLog new_sketch = new HyperLogLog(sketch_precision);
+      for (int i=0; i < num_values; i++) {
+        new_sketch.add(values[i]);
+      }
+      sketch = new_sketch;
+    }
+    values = null;
+    index = null;
+  }
+
+  /** Adds to the sketch whatever is known about the elements of s. */
+  @SuppressWarnings("nullness") // sketch is non-null, by precondition
+  private void addToSketch(LimitedSizeLongSet s) {
+    if (s.sketch != null) {
+      sketch.merge(s.sketch);
+    } else if (s.values != null) {
+      for (int i=0; i < s.num_values; i++) {
+        sketch.add(s.values[i]);
+      }
+    }
+    // Otherwise s overflowed without a sketch, and its elements are unknown.
+  }
+
+  /**
+   * Makes this set, when it overflows, keep a HyperLogLog sketch of the
+   * values added to it, rather than discarding all information about
+   * them.  The sketch supports {@link #approximateSize()} and keeps
+   * merging meaningful; it does not support contains.  When two
+   * overflowed sets are merged, their sketches must have the same
+   * precision.
+   * @param precision the precision of the sketch; see {@link HyperLogLog}
+   * @throws IllegalArgumentException if precision is out of range
+   * @throws IllegalStateException if this set has already overflowed
+   * without a sketch
+   **/
+  public void enableOverflowSketch(int precision) {
+    if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+      throw new IllegalArgumentException("Illegal precision: " + precision);
+    }
+    if (values == null && sketch == null) {
+      throw new IllegalStateException("Set has already overflowed");
+    }
+    if (sketch == null) {
+      sketch_precision = precision;
+    }
+  }
+
+  /**
+   * Like {@link #enableOverflowSketch(int)}, with the default precision,
+   * which uses 4 kilobytes once the set overflows.
+   **/
+  public void enableOverflowSketch() {
+    enableOverflowSketch(HyperLogLog.DEFAULT_PRECISION);
+  }
+
+  /**
+   * Returns the number of distinct elements added to the set:  exactly,
+   * if the rep is not nulled, or else as estimated by the overflow
+   * sketch.  Without a sketch, returns the same lower bound as size().
+   * @return the (estimated) number of distinct elements added to the set
+   **/
+  /*@Pure*/
+  public long approximateSize() {
+    if (sketch == null) {
+      return num_values;
+    }
+    return Math.max(sketch.estimate(), num_values);
+  }
+
+  /** Returns the hash index, building it if necessary.  Requires values != null. */
+  @SuppressWarnings("nullness") // values is non-null, by precondition
+  private int[] index() {
+    if (index == null) {
+      int capacity = 1;
+      while (capacity < 2 * values.length) {
+        capacity <<= 1;
+      }
+      int[] idx = new int[capacity];
+      for (int i=0; i < num_values; i++) {
+        idx[slotFor(idx, values[i])] = i + 1;
+      }
+      index = idx;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the slot of the index that refers to elt, or else the empty
+   * slot where a reference to elt belongs.
+   **/
+  @SuppressWarnings("nullness") // values is non-null while the index exists
+  private int slotFor(int[] idx, long elt) {
+    int mask = idx.length - 1;
+    int h = (int) (elt ^ (elt >>> 32)) * 0x9E3779B9;
+    for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+      int pos = idx[i];
+      if (pos == 0 || values[pos - 1] == elt) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * A lower bound on the number of elements in the set.  Returns either
+   * the number of elements that have been inserted in the set, or
+   * max_size(), whichever is less.
+   * @return a number that is a lower bound on the number of elements added to the set
+   **/
+  /*@Pure*/
+  public int size() {
+    return num_values;
+  }
+
+  /**
+   * An upper bound on how many distinct elements can be individually
+   * represented in the set.
+   * Returns max_values+1 (where max_values is the argument to the constructor).
+   * @return maximum capacity of the set representation
+   **/
+  public int max_size() {
+    if (values == null) {
+      return num_values;
+    } else {
+      return values.length + 1;
+    }
+  }
+
+  /*@EnsuresNonNullIf(result=false, expression="values")*/
+  /*@Pure*/
+  public boolean repNulled() {
+    return values == null;
+  }
+
+  @SuppressWarnings("sideeffectfree")   // side effect to local state (clone)
+  /*@SideEffectFree*/ public LimitedSizeLongSet clone() {
+    LimitedSizeLongSet result;
+    try {
+      result = (LimitedSizeLongSet) super.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new Error(); // can't happen
+    }
+    if (values != null) {
+      result.values = values.clone();
+    }
+    if (index != null) {
+      result.index = index.clone();
+    }
+    if (sketch != null) {
+      result.sketch = sketch.clone();
+    }
+    return result;
+  }
+
+  /**
+   * Merges a list of LimitedSizeLongSet objects into a single object that
+   * represents the values seen by the entire list.  Returns the new
+   * object, whose max_values is the given integer.  If any of the sets
+   * has overflow sketches enabled, so does the result.
+   * @param max_values the maximum size for the returned LimitedSizeLongSet
+   * @param slist a list of LimitedSizeLongSet, whose elements will be merged
+   * @return a LimitedSizeLongSet that merges the elements of slist
+   **/
+  public static LimitedSizeLongSet merge (int max_values, List<LimitedSizeLongSet> slist) {
+    LimitedSizeLongSet result = new LimitedSizeLongSet(max_values);
+    for (LimitedSizeLongSet s : slist) {
+      if (s.sketch_precision != 0) {
+        result.enableOverflowSketch(s.sketch_precision);
+        break;
+      }
+    }
+    for (LimitedSizeLongSet s : slist) {
+      result.addAll(s);
+    }
+    return result;
+  }
+
+  /*@SideEffectFree*/ public String toString() {
+    return ("[size=" + size() + "; " +
+            ((values == null) ? "null" : ArraysMDE.toString(values))
+            + ((sketch == null) ? "" : ("; estimate=" + sketch.estimate()))
+            + "]");
+  }
+
+}
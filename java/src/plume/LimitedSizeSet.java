@@ -2,6 +2,8 @@ package plume;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /*>>>
 import org.checkerframework.checker.nullness.qual.*;
@@ -28,6 +30,22 @@ public class LimitedSizeSet<T>
   // The number of active elements (equivalently, the first unused index).
   int num_values;
 
+  // Sets with more than this many values use a hash index for membership
+  // tests; smaller sets are faster to scan linearly.
+  static final int INDEX_THRESHOLD = 32;
+
+  // An open-addressed hash index into values, or null if it has not been
+  // built.  Each slot holds 0 (empty) or 1 plus an index into values.
+  // Its length is a power of two, at least twice values.length.  Not
+  // serialized; rebuilt on first use.
+  private transient int /*@Nullable*/ [] index;
+
+  // If non-zero, the precision of the sketch to create on overflow.
+  private int sketch_precision = 0;
+  // After overflow, if sketch_precision is non-zero, a sketch of every
+  // value added to the set.
+  private /*@Nullable*/ HyperLogLog sketch = null;
+
   public LimitedSizeSet(int max_values) {
     assert max_values > 0;
     // this.max_values = max_values;
@@ -38,15 +56,33 @@ public class LimitedSizeSet<T>
   }
 
   public void add(T elt) {
-    if (values == null)
+    if (values == null) {
+      if (sketch != null)
+        sketch.addObject(elt);
       return;
+    }
+
+    if (values.length > INDEX_THRESHOLD) {
+      int[] idx = index();
+      int slot = slotFor(idx, elt);
+      if (idx[slot] != 0) {
+        return;
+      }
+      if (num_values == values.length) {
+        overflow(elt);
+        return;
+      }
+      values[num_values] = elt;
+      num_values++;
+      idx[slot] = num_values;
+      return;
+    }
 
     if (contains(elt)) {
       return;
     }
     if (num_values == values.length) {
-      values = null;
-      num_values++;
+      overflow(elt);
       return;
     }
     values[num_values] = elt;
@@ -58,10 +94,25 @@ public class LimitedSizeSet<T>
     boolean sameObject = (this == s);
     if (sameObject)
       return;
-    if (repNulled())
+    if (repNulled()) {
+      if (sketch != null) {
+        addToSketch(s);
+      }
       return;
+    }
     if (s.repNulled()) {
       int values_length = values.length;
+      if (s.sketch != null) {
+        // Continue approximately, with a sketch of the union.
+        if (sketch_precision == 0) {
+          sketch_precision = s.sketch.precision();
+        }
+        overflow();
+        assert sketch != null : "@AssumeAssertion(nullness): sketch_precision != 0";
+        sketch.merge(s.sketch);
+        num_values = values_length+1;
+        return;
+      }
       // We don't know whether the elements of this and the argument were
       // disjoint.  There might be anywhere from max(size(), s.size()) to
       // (size() + s.size()) elements in the resulting set.
@@ -78,6 +129,9 @@ public class LimitedSizeSet<T>
       assert s.values[i] != null : "@AssumeAssertion(nullness): used portion of array";
       add(s.values[i]);
       if (repNulled()) {
+        if (sketch != null) {
+          continue;             // add the rest to the sketch
+        }
         return;                 // optimization, not necessary for correctness
       }
     }
@@ -89,6 +143,10 @@ public class LimitedSizeSet<T>
     if (values == null) {
       throw new UnsupportedOperationException();
     }
+    if (values.length > INDEX_THRESHOLD) {
+      int[] idx = index();
+      return idx[slotFor(idx, elt)] != 0;
+    }
     for (int i=0; i < num_values; i++) {
       @SuppressWarnings("nullness") // object invariant: used portion of array
       T value = values[i];
@@ -100,6 +158,127 @@ public class LimitedSizeSet<T>
   }
 
 
+  /**
+   * Nulls the rep because elt does not fit, first moving the values into
+   * a sketch if overflow sketches are enabled.
+   **/
+  private void overflow(T elt) {
+    overflow();
+    num_values++;
+    if (sketch != null) {
+      sketch.addObject(elt);
+    }
+  }
+
+  @SuppressWarnings("nullness") // values is non-null, by precondition
+  private void overflow() {
+    if (sketch_precision != 0) {
+      HyperLogLog new_sketch = new HyperLogLog(sketch_precision);
+      for (int i=0; i < num_values; i++) {
+        new_sketch.addObject(values[i]);
+      }
+      sketch = new_sketch;
+    }
+    values = null;
+    index = null;
+  }
+
+  /** Adds to the sketch whatever is known about the elements of s. */
+  @SuppressWarnings("nullness") // sketch is non-null, by precondition
+  private void addToSketch(LimitedSizeSet<? extends T> s) {
+    if (s.sketch != null) {
+      sketch.merge(s.sketch);
+    } else if (s.values != null) {
+      for (int i=0; i < s.num_values; i++) {
+        sketch.addObject(s.values[i]);
+      }
+    }
+    // Otherwise s overflowed without a sketch, and its elements are unknown.
+  }
+
+  /**
+   * Makes this set, when it overflows, keep a HyperLogLog sketch of the
+   * values added to it, rather than discarding all information about
+   * them.  The sketch supports {@link #approximateSize()} and keeps
+   * merging meaningful; it does not support contains.  When two
+   * overflowed sets are merged, their sketches must have the same
+   * precision.
+   * @param precision the precision of the sketch; see {@link HyperLogLog}
+   * @throws IllegalArgumentException if precision is out of range
+   * @throws IllegalStateException if this set has already overflowed
+   * without a sketch
+   **/
+  public void enableOverflowSketch(int precision) {
+    if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+      throw new IllegalArgumentException("Illegal precision: " + precision);
+    }
+    if (values == null && sketch == null) {
+      throw new IllegalStateException("Set has already overflowed");
+    }
+    if (sketch == null) {
+      sketch_precision = precision;
+    }
+  }
+
+  /**
+   * Like {@link #enableOverflowSketch(int)}, with the default precision,
+   * which uses 4 kilobytes once the set overflows.
+   **/
+  public void enableOverflowSketch() {
+    enableOverflowSketch(HyperLogLog.DEFAULT_PRECISION);
+  }
+
+  /**
+   * Returns the number of distinct elements added to the set:  exactly,
+   * if the rep is not nulled, or else as estimated by the overflow
+   * sketch.  Without a sketch, returns the same lower bound as size().
+   * @return the (estimated) number of distinct elements added to the set
+   **/
+  /*@Pure*/
+  public long approximateSize() {
+    if (sketch == null) {
+      return num_values;
+    }
+    return Math.max(sketch.estimate(), num_values);
+  }
+
+  /** Returns the hash index, building it if necessary.  Requires values != null. */
+  @SuppressWarnings("nullness") // values is non-null, by precondition
+  private int[] index() {
+    if (index == null) {
+      int capacity = 1;
+      while (capacity < 2 * values.length) {
+        capacity <<= 1;
+      }
+      int[] idx = new int[capacity];
+      for (int i=0; i < num_values; i++) {
+        idx[slotFor(idx, values[i])] = i + 1;
+      }
+      index = idx;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the slot of the index that refers to elt, or else the empty
+   * slot where a reference to elt belongs.
+   **/
+  @SuppressWarnings("nullness") // values is non-null while the index exists
+  private int slotFor(int[] idx, /*@Nullable*/ Object elt) {
+    int mask = idx.length - 1;
+    int h = ((elt == null) ? 0 : elt.hashCode()) * 0x9E3779B9;
+    for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+      int pos = idx[i];
+      if (pos == 0) {
+        return i;
+      }
+      T value = values[pos - 1];
+      if (value == elt || (value != null && value.equals(elt))) {
+        return i;
+      }
+    }
+  }
+
   /**
    * A lower bound on the number of elements in the set.  Returns either
    * the number of elements that have been inserted in the set, or
@@ -145,6 +324,12 @@ public class LimitedSizeSet<T>
     if (values != null) {
       result.values = values.clone();
     }
+    if (index != null) {
+      result.index = index.clone();
+    }
+    if (sketch != null) {
+      result.sketch = sketch.clone();
+    }
     return result;
   }
 
@@ -152,24 +337,89 @@ public class LimitedSizeSet<T>
   /**
    * Merges a list of LimitedSizeSet&lt;T&gt; objects into a single object that
    * represents the values seen by the entire list.  Returns the new
-   * object, whose max_values is the given integer.
+   * object, whose max_values is the given integer.  If any of the sets
+   * has overflow sketches enabled, so does the result.
    * @param <T> (super)type of elements of the sets
    * @param max_values the maximum size for the returned LimitedSizeSet
    * @param slist a list of LimitedSizeSet, whose elements will be merged
    * @return a LimitedSizeSet that merges the elements of slist
    **/
   public static <T> LimitedSizeSet<T> merge(int max_values, List<LimitedSizeSet<? extends T>> slist) {
+    return merge(max_values, sketchPrecision(slist), slist);
+  }
+
+  // Returns the overflow sketch precision of the first set that has one, or 0.
+  private static int sketchPrecision(List<? extends LimitedSizeSet<?>> slist) {
+    for (LimitedSizeSet<?> s : slist) {
+      if (s.sketch_precision != 0) {
+        return s.sketch_precision;
+      }
+    }
+    return 0;
+  }
+
+  private static <T> LimitedSizeSet<T> merge(int max_values, int sketch_precision, List<LimitedSizeSet<? extends T>> slist) {
     LimitedSizeSet<T> result = new LimitedSizeSet<T>(max_values);
+    if (sketch_precision != 0) {
+      result.enableOverflowSketch(sketch_precision);
+    }
     for (LimitedSizeSet<? extends T> s : slist) {
       result.addAll(s);
     }
     return result;
   }
 
+  /**
+   * Like {@link #merge(int, List)}, but merges the sets in parallel, as a
+   * tree:  disjoint runs of the list are merged concurrently, and then
+   * the partial results are merged pairwise.  The sets in the list must
+   * not be modified during the merge.
+   * @param <T> (super)type of elements of the sets
+   * @param max_values the maximum size for the returned LimitedSizeSet
+   * @param slist a list of LimitedSizeSet, whose elements will be merged
+   * @param pool the pool in which to run the merge
+   * @return a LimitedSizeSet that merges the elements of slist
+   **/
+  public static <T> LimitedSizeSet<T> merge(int max_values, List<LimitedSizeSet<? extends T>> slist, ForkJoinPool pool) {
+    return pool.invoke(new MergeTask<T>(max_values, sketchPrecision(slist), slist));
+  }
+
+  /** Merges a run of sets, splitting it in half if it is long. */
+  private static final class MergeTask<T> extends RecursiveTask<LimitedSizeSet<T>> {
+    static final long serialVersionUID = 20261015L;
+
+    /** Runs no longer than this are merged sequentially. */
+    private static final int LEAF_SIZE = 16;
+
+    private final int max_values;
+    private final int sketch_precision;
+    private final List<LimitedSizeSet<? extends T>> slist;
+
+    MergeTask(int max_values, int sketch_precision, List<LimitedSizeSet<? extends T>> slist) {
+      this.max_values = max_values;
+      this.sketch_precision = sketch_precision;
+      this.slist = slist;
+    }
+
+    protected LimitedSizeSet<T> compute() {
+      int n = slist.size();
+      if (n <= LEAF_SIZE) {
+        return merge(max_values, sketch_precision, slist);
+      }
+      MergeTask<T> left = new MergeTask<T>(max_values, sketch_precision, slist.subList(0, n / 2));
+      MergeTask<T> right = new MergeTask<T>(max_values, sketch_precision, slist.subList(n / 2, n));
+      left.fork();
+      LimitedSizeSet<T> result = right.compute();
+      result.addAll(left.join());
+      return result;
+    }
+  }
+
   @SuppressWarnings("nullness") // bug in flow; to fix later
   /*@SideEffectFree*/ public String toString() {
     return ("[size=" + size() + "; " +
             ((values == null) ? "null" : ArraysMDE.toString(values))
+            + ((sketch == null) ? "" : ("; estimate=" + sketch.estimate()))
             + "]");
   }
 
@@ -1,5 +1,6 @@
 // MultiRandSelector.java
 package plume;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -21,6 +22,11 @@ import java.util.*;
  * iteration to be sampled. Then, call valuesIter() to receive an
  * iteration of all the values selected by the random selection.
  *
+ * <p>When there are too many buckets to hold in memory, call
+ * {@link #spillToDisk(int, File)} before accepting any elements.  Then
+ * only the most recently used buckets are kept in memory, and the
+ * others are written to temporary files, to be read back by valuesIter().
+ *
  * @see RandomSelector
  **/
 public class MultiRandSelector<T> {
@@ -33,6 +39,28 @@ public class MultiRandSelector<T> {
 
     private HashMap<T,RandomSelector<T>> map;
 
+    // valuesIter() splits a run of spilled buckets into at most this many
+    // files at a time.
+    private static final int MAX_FANOUT = 64;
+    // valuesIter() splits runs at most this many times.  Only buckets with
+    // colliding hash codes can need more.
+    private static final int MAX_DEPTH = 8;
+
+    // The directory for spill files, or null if buckets are never spilled.
+    private /*@Nullable*/ File spill_dir = null;
+    // In spill mode, the maximum number of buckets to hold in memory.
+    private int max_buckets = -1;
+    // The file to which buckets are spilled, and an open stream that
+    // appends to it; null until a bucket is spilled.
+    private /*@Nullable*/ File spill_file = null;
+    private /*@Nullable*/ ObjectOutputStream spill_out = null;
+    // The number of buckets written to spill_file.
+    private long spill_count = 0;
+    // Files created by valuesIter() and not yet deleted.
+    private final Set<File> run_files = new HashSet<File>();
+    // The class of bucket most recently found to have value equality.
+    private /*@Nullable*/ Class<?> checked_class = null;
+
     /** @param num_elts the number of elements to select from each bucket
      *  @param eq partioner that determines how to partition the objects from
      *  the iteration.
@@ -71,28 +99,293 @@ public class MultiRandSelector<T> {
 
 
     public void accept (T next) {
+        RandomSelector<T> delegation = selectorFor (next);
+        if (delegation != null) {
+            delegation.accept (next);
+        }
+    }
+
+    /** Accepts an element with the given weight, so that within its
+     * bucket it is selected with probability proportional to its weight.
+     * @param next value to be added to this selector
+     * @param weight the weight of next, which must be non-negative
+     * @see RandomSelector#accept(Object, double)
+     */
+    public void accept (T next, double weight) {
+        RandomSelector<T> delegation = selectorFor (next);
+        if (delegation != null) {
+            delegation.accept (next, weight);
+        }
+    }
+
+    /** Returns the selector for next's bucket, creating it if necessary,
+     * or null if next belongs to no bucket. */
+    private /*@Nullable*/ RandomSelector<T> selectorFor (T next) {
         T equivClass = eq.assignToBucket (next);
         if (equivClass == null)
-            return;
+            return null;
         RandomSelector<T> delegation = map.get (equivClass);
         if (delegation == null) {
-            delegation = (coin_toss_mode) ?
-                new RandomSelector<T> (keep_probability, seed) :
-                new RandomSelector<T> (num_elts, seed);
+            delegation = newSelector();
             map.put (equivClass, delegation);
         }
-        delegation.accept (next);
+        return delegation;
+    }
+
+    private RandomSelector<T> newSelector() {
+        return (coin_toss_mode) ?
+            new RandomSelector<T> (keep_probability, seed) :
+            new RandomSelector<T> (num_elts, seed);
+    }
+
+    /** Bounds the number of buckets held in memory.  When a new bucket
+     * would exceed the bound, the least recently used bucket is appended
+     * to a temporary file in dir.  If an element of a spilled bucket is
+     * later accepted, a new bucket is started for it; valuesIter() merges
+     * the parts of each bucket, with {@link RandomSelector#merge}, so the
+     * selection is as if the bucket had never been spilled.
+     *
+     * <p>The buckets and the elements must be Serializable.  Since a
+     * spilled bucket is read back as a copy, the buckets must also be
+     * compared by value:  their class must override equals and hashCode.
+     * Spilling a bucket that does not throws IllegalArgumentException.
+     *
+     * <p>valuesIter() reads the spilled buckets back in groups of at most
+     * max_buckets_in_memory, so that it holds at most about twice that
+     * many buckets in memory at once.
+     *
+     * <p>Call {@link #close()} to delete the temporary files.
+     *
+     * @param max_buckets_in_memory the maximum number of buckets to hold
+     * in memory
+     * @param dir the directory in which to create spill files, or null
+     * for the default temporary-file directory
+     * @throws IllegalStateException if an element has already been
+     * accepted
+     **/
+    public void spillToDisk (int max_buckets_in_memory, /*@Nullable*/ File dir) {
+        if (max_buckets_in_memory <= 0) {
+            throw new IllegalArgumentException ("Bad max_buckets_in_memory: " + max_buckets_in_memory);
+        }
+        if (! map.isEmpty()) {
+            throw new IllegalStateException ("Elements have already been accepted");
+        }
+        spill_dir = (dir == null) ? new File (System.getProperty ("java.io.tmpdir")) : dir;
+        max_buckets = max_buckets_in_memory;
+        map = new SpillingMap (max_buckets_in_memory);
+    }
+
+    /** An access-ordered map that spills its least recently used bucket
+     * when it grows too large. */
+    private final class SpillingMap extends LinkedHashMap<T,RandomSelector<T>> {
+        static final long serialVersionUID = 20261015L;
+
+        private final int max_size;
+
+        SpillingMap (int max_size) {
+            super (16, 0.75f, true);
+            this.max_size = max_size;
+        }
+
+        protected boolean removeEldestEntry (Map.Entry<T,RandomSelector<T>> eldest) {
+            if (size() <= max_size) {
+                return false;
+            }
+            spill (eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    }
+
+    /** Appends a bucket to the spill file. */
+    private void spill (T bucket, RandomSelector<T> rs) {
+        checkValueEquality (bucket);
+        try {
+            if (spill_out == null) {
+                spill_file = File.createTempFile ("MultiRandSelector", ".spill", spill_dir);
+                spill_out = new ObjectOutputStream
+                    (new BufferedOutputStream (new FileOutputStream (spill_file)));
+            }
+            writeBucket (spill_out, bucket, rs);
+        } catch (IOException e) {
+            throw new Error ("Cannot spill bucket " + bucket, e);
+        }
+        spill_count++;
+    }
+
+    /** Throws IllegalArgumentException unless the bucket's class
+     * overrides equals and hashCode. */
+    private void checkValueEquality (T bucket) {
+        Class<?> c = bucket.getClass();
+        if (c == checked_class) {
+            return;
+        }
+        try {
+            if (c.getMethod ("equals", Object.class).getDeclaringClass() == Object.class
+                || c.getMethod ("hashCode").getDeclaringClass() == Object.class) {
+                throw new IllegalArgumentException
+                    ("Cannot spill bucket " + bucket + ": " + c.getName()
+                     + " does not override equals and hashCode");
+            }
+        } catch (NoSuchMethodException e) {
+            throw new Error (e);      // can't happen:  every class has them
+        }
+        checked_class = c;
+    }
+
+    private static <T> void writeBucket (ObjectOutputStream out, T bucket, RandomSelector<T> rs)
+        throws IOException {
+        out.writeObject (bucket);
+        rs.writeState (out);
+        // Forget the objects written, so that they can be collected.
+        out.reset();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readBucket (ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        return (T) in.readObject();
+    }
+
+    /** A file of spilled buckets, possibly with several parts of a bucket. */
+    private static final class Run {
+        final File file;
+        final long count;
+        // The number of times the buckets in the file have been split.
+        final int depth;
+        // True if the file was created by valuesIter(), to be deleted
+        // once it has been read.
+        final boolean temporary;
+
+        Run (File file, long count, int depth, boolean temporary) {
+            this.file = file;
+            this.count = count;
+            this.depth = depth;
+            this.temporary = temporary;
+        }
+    }
+
+    /** Reads the buckets of a run, merging the parts of each bucket.
+     * Returns null, without reading further, if bounded is true and the
+     * run has more than max_buckets distinct buckets. */
+    private /*@Nullable*/ HashMap<T,RandomSelector<T>> readRun (Run run, boolean bounded) {
+        HashMap<T,RandomSelector<T>> result = new HashMap<T,RandomSelector<T>>();
+        try {
+            ObjectInputStream in = new ObjectInputStream
+                (new BufferedInputStream (new FileInputStream (run.file)));
+            try {
+                for (long i=0; i < run.count; i++) {
+                    T bucket = MultiRandSelector.<T>readBucket (in);
+                    RandomSelector<T> rs = newSelector();
+                    rs.readState (in);
+                    RandomSelector<T> existing = result.get (bucket);
+                    if (existing == null) {
+                        if (bounded && result.size() == max_buckets) {
+                            return null;
+                        }
+                        result.put (bucket, rs);
+                    } else {
+                        existing.merge (rs);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new Error ("Cannot read spill file " + run.file, e);
+        } catch (ClassNotFoundException e) {
+            throw new Error ("Cannot read spill file " + run.file, e);
+        }
+        return result;
+    }
+
+    /** Splits a run into smaller runs, by the hash codes of the buckets.
+     * Each part of a bucket goes to the same smaller run. */
+    private List<Run> splitRun (Run run) {
+        int fanout = (int) Math.min (MAX_FANOUT, Math.max (2, (run.count + max_buckets - 1) / max_buckets));
+        File[] files = new File[fanout];
+        ObjectOutputStream[] outs = new ObjectOutputStream[fanout];
+        long[] counts = new long[fanout];
+        try {
+            ObjectInputStream in = new ObjectInputStream
+                (new BufferedInputStream (new FileInputStream (run.file)));
+            try {
+                for (long i=0; i < run.count; i++) {
+                    T bucket = MultiRandSelector.<T>readBucket (in);
+                    RandomSelector<T> rs = newSelector();
+                    rs.readState (in);
+                    long h = HyperLogLog.mix (bucket.hashCode() + 0x9E3779B97F4A7C15L * (run.depth + 1));
+                    int p = (int) ((h >>> 1) % fanout);
+                    if (outs[p] == null) {
+                        files[p] = File.createTempFile ("MultiRandSelector", ".run", spill_dir);
+                        run_files.add (files[p]);
+                        outs[p] = new ObjectOutputStream
+                            (new BufferedOutputStream (new FileOutputStream (files[p])));
+                    }
+                    writeBucket (outs[p], bucket, rs);
+                    counts[p]++;
+                }
+            } finally {
+                in.close();
+                for (ObjectOutputStream out : outs) {
+                    if (out != null) {
+                        out.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new Error ("Cannot split spill file " + run.file, e);
+        } catch (ClassNotFoundException e) {
+            throw new Error ("Cannot split spill file " + run.file, e);
+        }
+        List<Run> result = new ArrayList<Run>();
+        for (int p=0; p < fanout; p++) {
+            if (files[p] != null) {
+                result.add (new Run (files[p], counts[p], run.depth + 1, true));
+            }
+        }
+        return result;
+    }
+
+    /** Deletes the temporary files, discarding the spilled buckets.  The
+     * buckets in memory are retained.  Any iterator returned by
+     * valuesIter() must not be used afterward.
+     **/
+    public void close () {
+        if (spill_out != null) {
+            try {
+                spill_out.close();
+            } catch (IOException e) {
+                // Nothing to do; the file is deleted regardless.
+            }
+            assert spill_file != null : "@AssumeAssertion(nullness): set with spill_out";
+            spill_file.delete();
+            spill_out = null;
+            spill_file = null;
+            spill_count = 0;
+        }
+        for (File f : run_files) {
+            f.delete();
+        }
+        run_files.clear();
     }
 
     // TODO: is there any reason not to simply return a copy?
     // NOT safe from concurrent modification.
+    /** Returns the buckets.  After {@link #spillToDisk}, returns only the
+     * buckets held in memory; use valuesIter() to see all of them. */
     public Map<T,RandomSelector<T>> values () {
         return map;
     }
 
     /** Returns an iterator of all objects selected.
+     * After {@link #spillToDisk}, the spilled buckets are read back in
+     * groups, as the iterator advances; elements must not be accepted
+     * until the iteration is complete.
      * @return an iterator of all objects selected. */
     public Iterator<T> valuesIter() {
+        if (spill_dir != null) {
+            return new SpilledValuesIterator();
+        }
         ArrayList<T> ret = new ArrayList<T>();
         for (RandomSelector<T> rs : map.values()) {
             ret.addAll (rs.getValues());
@@ -100,4 +393,86 @@ public class MultiRandSelector<T> {
         return ret.iterator();
     }
 
+    /** Yields the selected values of the spilled buckets, a run at a
+     * time, and then those of the buckets that were never spilled.  A
+     * run with too many distinct buckets to hold in memory is first
+     * split into smaller runs.  Does not modify the buckets in memory. */
+    private final class SpilledValuesIterator implements Iterator<T> {
+        // The buckets in memory that have not yet been yielded.
+        private final HashMap<T,RandomSelector<T>> resident;
+        // The runs not yet read.
+        private final ArrayDeque<Run> pending = new ArrayDeque<Run>();
+        private Iterator<T> current = Collections.<T>emptyList().iterator();
+
+        SpilledValuesIterator () {
+            resident = new HashMap<T,RandomSelector<T>> (map);
+            if (spill_out != null) {
+                try {
+                    spill_out.flush();
+                } catch (IOException e) {
+                    throw new Error ("Cannot write spill file " + spill_file, e);
+                }
+                assert spill_file != null : "@AssumeAssertion(nullness): set with spill_out";
+                pending.push (new Run (spill_file, spill_count, 0, false));
+            }
+        }
+
+        public boolean hasNext() {
+            while (! current.hasNext()) {
+                if (! pending.isEmpty()) {
+                    current = readValues (pending.pop());
+                } else if (! resident.isEmpty()) {
+                    current = valuesOf (resident.values());
+                    resident.clear();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public T next() {
+            if (! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /** Returns the values of the buckets in the run, merged with the
+         * buckets in memory; or, if the run is too large, splits it and
+         * returns no values. */
+        private Iterator<T> readValues (Run run) {
+            HashMap<T,RandomSelector<T>> spilled = readRun (run, run.depth < MAX_DEPTH);
+            if (spilled == null) {
+                for (Run part : splitRun (run)) {
+                    pending.push (part);
+                }
+            } else {
+                for (Map.Entry<T,RandomSelector<T>> entry : spilled.entrySet()) {
+                    RandomSelector<T> rs = resident.remove (entry.getKey());
+                    if (rs != null) {
+                        entry.getValue().merge (rs);
+                    }
+                }
+            }
+            if (run.temporary) {
+                run.file.delete();
+                run_files.remove (run.file);
+            }
+            return (spilled == null) ? Collections.<T>emptyList().iterator() : valuesOf (spilled.values());
+        }
+
+        private Iterator<T> valuesOf (Collection<RandomSelector<T>> selectors) {
+            ArrayList<T> ret = new ArrayList<T>();
+            for (RandomSelector<T> rs : selectors) {
+                ret.addAll (rs.getValues());
+            }
+            return ret.iterator();
+        }
+    }
+
 }
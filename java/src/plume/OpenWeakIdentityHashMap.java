@@ -0,0 +1,459 @@
+package plume;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A map with weak keys that compares keys by identity (==), like
+ * {@link WeakIdentityHashMap}, but implemented with open addressing
+ * rather than chaining.
+ * <p>
+ *
+ * The table is three parallel arrays:  weak references to the keys,
+ * the keys' identity hash codes, and the values.  There is no per-entry
+ * object other than the weak reference to the key, which Java requires,
+ * and no chain pointer.  A lookup probes consecutive slots of the hash
+ * code array, and dereferences a key only when its hash code matches,
+ * so it touches far fewer cache lines than following a chain of entry
+ * objects.  The weak reference still dominates the per-mapping space, so
+ * the saving in memory is small; the gain is mainly in lookup time for
+ * large tables.
+ * <p>
+ *
+ * Removed entries leave tombstones, which are discarded when the table
+ * is rehashed.  An entry whose key has been garbage-collected is removed
+ * by a later operation on the map; see {@link #setExpungeBudget(int)}.
+ * <p>
+ *
+ * This class is not synchronized.  Its iterators are fail-fast.  Null
+ * keys and values are permitted.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see WeakIdentityHashMap
+ **/
+public class OpenWeakIdentityHashMap<K,V> extends AbstractMap<K,V> implements Map<K,V> {
+
+  private static final int MIN_CAPACITY = 16;
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** Stands for the null key, which cannot be the referent of a WeakReference. */
+  private static final Object NULL_KEY = new Object();
+
+  /**
+   * A weak reference to a key, which records its slot so that it can be
+   * removed in constant time after it is cleared.
+   **/
+  private static final class KeyRef extends WeakReference<Object> {
+    // -1 if the reference is no longer in the table.
+    int slot;
+
+    KeyRef(/*@Nullable*/ Object key, /*@Nullable*/ ReferenceQueue<Object> queue, int slot) {
+      super(key, queue);
+      this.slot = slot;
+    }
+  }
+
+  /** Occupies the slot of a removed entry. */
+  private static final KeyRef TOMBSTONE = new KeyRef(null, null, -1);
+
+  // A null element of refs is an empty slot.
+  private /*@Nullable*/ KeyRef[] refs;
+  private int[] hashes;
+  private /*@Nullable*/ Object[] vals;
+  // capacity == 1 << (32 - shift)
+  private int shift;
+
+  /** The number of entries, including those whose keys have been cleared. */
+  private int size = 0;
+  private int tombstones = 0;
+  private int modCount = 0;
+
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+  /** The maximum number of stale entries that an operation expunges, or 0 for no limit. */
+  private int expungeBudget = 0;
+
+  /**
+   * Creates a new, empty map.
+   **/
+  public OpenWeakIdentityHashMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * Creates a new, empty map that can hold the given number of mappings
+   * without rehashing.
+   * @param expectedSize the expected number of mappings
+   * @throws IllegalArgumentException if expectedSize is negative
+   **/
+  public OpenWeakIdentityHashMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+    }
+    allocate(capacityFor(expectedSize));
+  }
+
+  // Returns a capacity (a power of two) at most half full with n entries.
+  private static int capacityFor(int n) {
+    int capacity = MIN_CAPACITY;
+    while (capacity / 2 < n && capacity < MAXIMUM_CAPACITY) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    refs = new KeyRef[capacity];
+    hashes = new int[capacity];
+    vals = new Object[capacity];
+    shift = 32 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /*@Pure*/ private static Object maskNull(/*@Nullable*/ Object key) {
+    return (key == null) ? NULL_KEY : key;
+  }
+
+  @SuppressWarnings("unchecked")
+  /*@Pure*/ private static <K> /*@Nullable*/ K unmaskNull(Object key) {
+    return (key == NULL_KEY) ? null : (K) key;
+  }
+
+  // Uses the high bits of the scrambled hash code.
+  /*@Pure*/ private int indexFor(int hash) {
+    return (hash * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   * Returns the slot that holds the given (masked) key, or -1.
+   **/
+  private int find(Object key, int hash) {
+    int mask = refs.length - 1;
+    for (int i = indexFor(hash); ; i = (i + 1) & mask) {
+      KeyRef ref = refs[i];
+      if (ref == null) {
+        return -1;
+      }
+      if (hashes[i] == hash && ref.get() == key) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Removes the entry in slot i, leaving a tombstone.  Does not move any
+   * other entry, so it does not invalidate iterators.
+   **/
+  private void removeSlot(int i) {
+    KeyRef ref = refs[i];
+    assert ref != null && ref != TOMBSTONE;
+    ref.slot = -1;
+    ref.clear();                // avoid enqueueing it later
+    refs[i] = TOMBSTONE;
+    vals[i] = null;
+    size--;
+    tombstones++;
+  }
+
+  /* -- Stale entries -- */
+
+  /**
+   * Sets the maximum number of stale entries (entries whose keys have
+   * been garbage-collected) that a single operation on this map removes.
+   * By default there is no limit.  With a limit, the work of removing
+   * stale entries after a large garbage collection is spread over
+   * subsequent operations.
+   * @param budget the maximum number of stale entries that an operation
+   * removes, or 0 for no limit
+   * @throws IllegalArgumentException if budget is negative
+   **/
+  public void setExpungeBudget(int budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Illegal expunge budget: " + budget);
+    }
+    expungeBudget = budget;
+  }
+
+  /**
+   * Removes every stale entry, regardless of the expunge budget.
+   * @see #setExpungeBudget(int)
+   **/
+  public void expungeStaleEntries() {
+    expungeUpTo(0);
+  }
+
+  private void expungeWithinBudget() {
+    expungeUpTo(expungeBudget);
+  }
+
+  // Removes at most max stale entries, or all of them if max is 0.
+  private void expungeUpTo(int max) {
+    int expunged = 0;
+    KeyRef ref;
+    while ((max == 0 || expunged++ < max)
+           && (ref = (KeyRef) queue.poll()) != null) {
+      if (ref.slot >= 0 && refs[ref.slot] == ref) {
+        removeSlot(ref.slot);
+      }
+    }
+  }
+
+  /**
+   * Rehashes into a table sized for the live entries, discarding
+   * tombstones and entries whose keys have been cleared.
+   **/
+  private void rehash() {
+    /*@Nullable*/ KeyRef[] oldRefs = refs;
+    int[] oldHashes = hashes;
+    /*@Nullable*/ Object[] oldVals = vals;
+    allocate(capacityFor(size + 1));
+    size = 0;
+    tombstones = 0;
+    int mask = refs.length - 1;
+    for (int j = 0; j < oldRefs.length; j++) {
+      KeyRef ref = oldRefs[j];
+      if (ref == null || ref == TOMBSTONE) {
+        continue;
+      }
+      if (ref.get() == null) {
+        ref.slot = -1;
+        continue;
+      }
+      int i = indexFor(oldHashes[j]);
+      while (refs[i] != null) {
+        i = (i + 1) & mask;
+      }
+      refs[i] = ref;
+      hashes[i] = oldHashes[j];
+      vals[i] = oldVals[j];
+      ref.slot = i;
+      size++;
+    }
+    modCount++;
+  }
+
+  /* -- Queries and updates -- */
+
+  /**
+   * Returns the number of mappings in this map.  Removes every stale
+   * entry, regardless of the expunge budget.
+   **/
+  /*@Pure*/ public int size() {
+    expungeUpTo(0);
+    return size;
+  }
+
+  /*@Pure*/ public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /*@Pure*/ public boolean containsKey(/*@Nullable*/ Object key) {
+    expungeWithinBudget();
+    Object k = maskNull(key);
+    return find(k, System.identityHashCode(k)) != -1;
+  }
+
+  /*@Pure*/ public /*@Nullable*/ V get(/*@Nullable*/ Object key) {
+    expungeWithinBudget();
+    Object k = maskNull(key);
+    int i = find(k, System.identityHashCode(k));
+    if (i == -1) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    V result = (V) vals[i];
+    return result;
+  }
+
+  public /*@Nullable*/ V put(K key, V value) {
+    expungeWithinBudget();
+    Object k = maskNull(key);
+    int hash = System.identityHashCode(k);
+    int mask = refs.length - 1;
+    int free = -1;              // the first tombstone on the probe path
+    int i = indexFor(hash);
+    for ( ; refs[i] != null; i = (i + 1) & mask) {
+      KeyRef ref = refs[i];
+      if (ref == TOMBSTONE) {
+        if (free == -1) {
+          free = i;
+        }
+      } else if (hashes[i] == hash && ref.get() == k) {
+        @SuppressWarnings("unchecked")
+        V old = (V) vals[i];
+        vals[i] = value;
+        return old;
+      }
+    }
+    if (free != -1) {
+      i = free;
+      tombstones--;
+    }
+    refs[i] = new KeyRef(k, (k == NULL_KEY) ? null : queue, i);
+    hashes[i] = hash;
+    vals[i] = value;
+    size++;
+    modCount++;
+    if ((size + tombstones) * 4 > refs.length * 3) {
+      expungeUpTo(0);
+      rehash();
+    }
+    return null;
+  }
+
+  public /*@Nullable*/ V remove(/*@Nullable*/ Object key) {
+    expungeWithinBudget();
+    Object k = maskNull(key);
+    int i = find(k, System.identityHashCode(k));
+    if (i == -1) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    V old = (V) vals[i];
+    removeSlot(i);
+    modCount++;
+    return old;
+  }
+
+  public void clear() {
+    for (int i = 0; i < refs.length; i++) {
+      KeyRef ref = refs[i];
+      if (ref != null && ref != TOMBSTONE) {
+        ref.slot = -1;
+        ref.clear();
+      }
+    }
+    while (queue.poll() != null)
+      ;
+    allocate(MIN_CAPACITY);
+    size = 0;
+    tombstones = 0;
+    modCount++;
+  }
+
+  /* -- Views -- */
+
+  private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+    private int index = 0;                  // the next slot to examine
+    private int lastReturned = -1;
+    private int expectedModCount = modCount;
+    // Strong references, so that the keys are not collected between
+    // hasNext and next.
+    private /*@Nullable*/ Object nextKey = null;
+    private /*@Nullable*/ Object currentKey = null;
+
+    public boolean hasNext() {
+      while (nextKey == null && index < refs.length) {
+        KeyRef ref = refs[index];
+        if (ref != null && ref != TOMBSTONE) {
+          nextKey = ref.get();
+        }
+        if (nextKey == null) {
+          index++;
+        }
+      }
+      return nextKey != null;
+    }
+
+    public Map.Entry<K,V> next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (! hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = index++;
+      currentKey = nextKey;
+      nextKey = null;
+      return new Entry(lastReturned, OpenWeakIdentityHashMap.<K>unmaskNull(currentKey));
+    }
+
+    public void remove() {
+      if (lastReturned == -1) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeSlot(lastReturned);
+      lastReturned = -1;
+      currentKey = null;
+    }
+  }
+
+  /** An entry of the map, which holds its key strongly. */
+  private final class Entry extends AbstractMap.SimpleEntry<K,V> {
+    static final long serialVersionUID = 20261015L;
+
+    private final int slot;
+
+    @SuppressWarnings("unchecked")
+    Entry(int slot, /*@Nullable*/ K key) {
+      super(key, (V) vals[slot]);
+      this.slot = slot;
+    }
+
+    public V setValue(V value) {
+      KeyRef ref = (slot < refs.length) ? refs[slot] : null;
+      if (ref != null && ref.get() == maskNull(getKey())) {
+        vals[slot] = value;
+      } else {
+        // The table has been rehashed since this entry was returned.
+        put(getKey(), value);
+      }
+      return super.setValue(value);
+    }
+
+    /*@Pure*/ public boolean equals(/*@Nullable*/ Object o) {
+      if (! (o instanceof Map.Entry<?,?>)) {
+        return false;
+      }
+      Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+      V v = getValue();
+      return getKey() == e.getKey()
+        && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+    }
+
+    /*@Pure*/ public int hashCode() {
+      V v = getValue();
+      return System.identityHashCode(getKey()) ^ (v == null ? 0 : v.hashCode());
+    }
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+    public Iterator<Map.Entry<K,V>> iterator() {
+      expungeWithinBudget();
+      return new EntryIterator();
+    }
+    /*@Pure*/ public int size() {
+      return OpenWeakIdentityHashMap.this.size();
+    }
+    public void clear() {
+      OpenWeakIdentityHashMap.this.clear();
+    }
+  }
+
+  private /*@Nullable*/ Set<Map.Entry<K,V>> entrySet = null;
+
+  /**
+   * Returns a <code>Set</code> view of the mappings in this map.  The
+   * set's iterator skips entries whose keys have been garbage-collected.
+   **/
+  /*@SideEffectFree*/ public Set<Map.Entry<K,V>> entrySet() {
+    if (entrySet == null) entrySet = new EntrySet();
+    return entrySet;
+  }
+
+}
@@ -1,6 +1,11 @@
 package plume;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * RandomSelector selects k elements uniformly at random from
@@ -22,9 +27,29 @@ import java.util.*;
  * <p>A second mode allows for a fixed probability of randomly keeping
  *  each item as opposed to a fixed number of samples.
  *
+ * <p>A third mode selects a fixed number of samples, like the first, but
+ * uses Li's Algorithm L:  rather than drawing a random number for every
+ * element, it computes how many elements to skip before the next one
+ * that will be selected, so it makes only O(k log(n/k)) random draws for
+ * n elements.  In this mode, {@link #acceptAll(Object[])} and
+ * {@link #acceptAll(Iterator)} pass over the skipped elements without
+ * examining them.  See Kim-Hung Li, "Reservoir-Sampling Algorithms of
+ * Time Complexity O(n(1 + log(N/n)))", ACM TOMS 20(4), 1994.
+ *
+ * <p>Elements may be given weights, via {@link #accept(Object, double)}.
+ * In fixed sample mode, a weighted selector chooses k elements without
+ * replacement, each with probability proportional to its weight, using
+ * Efraimidis and Spirakis's algorithm A-ExpJ:  it keeps the elements
+ * with the k largest random keys in a heap, and skips ahead by the total
+ * weight that can be passed over before the next element enters the
+ * heap, so it draws random numbers only for the O(k log(n/k)) elements
+ * that are selected.  See "Weighted random sampling with a reservoir",
+ * IPL 97(5), 2006.  In probability mode, an element with weight w is
+ * kept with probability min(1, w * keep_probability).
+ *
  * <P>SPECFIELDS:
  * <BR>current_values  : Set : The values chosen based on the Objects observed
- * <BR>number_observed : int : The number of Objects observed
+ * <BR>number_observed : long : The number of Objects observed
  * <BR>number_to_take  : int : The number of elements to choose ('k' above)
  * <BR>keep_probability: double :  The percentage of elements to keep
  * <BR>selector_mode :
@@ -63,11 +88,36 @@ public class RandomSelector<T> {
     //                        fixed percentage if coin_toss_mode == false
 
     private int num_elts = -1;
-    private int observed;
+    private long observed;
     private Random generator;
     private ArrayList<T> values;
     private boolean coin_toss_mode = false;
     private double keep_probability = -1.0;
+    // Algorithm L state, used only if skip_mode is true and the reservoir
+    // is full:  skip_w is the current W, and next_selected is the
+    // (1-based) number of the next element to be selected.
+    private boolean skip_mode = false;
+    private double skip_w;
+    private long next_selected;
+    // A-ExpJ state, used only in weighted fixed sample mode:  the
+    // selected elements, in a min-heap ordered by the logarithms of
+    // their keys, and the weight to pass over before the next element
+    // enters the heap.  heap is null unless the selector is weighted.
+    private /*@Nullable*/ PriorityQueue<Keyed<T>> heap = null;
+    private double weight_to_skip;
+
+    /** A selected element and the logarithm of its random key. */
+    private static final class Keyed<T> implements Comparable<Keyed<T>> {
+        final double log_key;
+        final T value;
+        Keyed (double log_key, T value) {
+            this.log_key = log_key;
+            this.value = value;
+        }
+        public int compareTo (Keyed<T> other) {
+            return Double.compare (log_key, other.log_key);
+        }
+    }
 
 
     /** @param num_elts The number of elements intended to be selected
@@ -93,6 +143,20 @@ public class RandomSelector<T> {
         generator = r;
     }
 
+    /** @param num_elts The number of elements intended to be selected
+     * from the input elements.
+     * @param r The seed to give for random number generation.
+     * @param skip_ahead If true, use Algorithm L, which skips over
+     * elements that will not be selected rather than drawing a random
+     * number for each.
+     *
+     * Sets 'number_to_take' = num_elts
+     **/
+    public RandomSelector (int num_elts, Random r, boolean skip_ahead) {
+        this (num_elts, r);
+        skip_mode = skip_ahead;
+    }
+
     /** @param keep_probability The probability that each element is
      * selected from the oncoming Iteration.
      * @param r The seed to give for random number generation.
@@ -120,6 +184,21 @@ public class RandomSelector<T> {
      **/
     public void accept (T next) {
 
+        if (heap != null) {
+            accept (next, 1.0);
+            return;
+        }
+
+        if (skip_mode) {
+            observed++;
+            if (values.size() < num_elts) {
+                fill (next);
+            } else if (observed == next_selected) {
+                replace (next);
+            }
+            return;
+        }
+
         // if we are in coin toss mode, then we want to keep
         // with probability == keep_probability.
         if (coin_toss_mode) {
@@ -147,12 +226,390 @@ public class RandomSelector<T> {
         // do nothing if the probability condition is not met
     }
 
+    /** Accepts each element of the array, in order, as if by accept().
+     * In skip-ahead mode, elements that will not be selected are
+     * skipped without being examined.
+     * @param a the values to be added to this selector
+     **/
+    public void acceptAll (T[] a) {
+        if (! skip_mode || heap != null) {
+            for (T elt : a) {
+                accept (elt);
+            }
+            return;
+        }
+        if (num_elts <= 0) {
+            observed += a.length;
+            return;
+        }
+        int i = 0;
+        while (i < a.length && values.size() < num_elts) {
+            observed++;
+            fill (a[i++]);
+        }
+        while (i < a.length) {
+            // Jump to the next selected element, if it is in the array.
+            long remaining = next_selected - observed;
+            if (remaining > a.length - i) {
+                observed += a.length - i;
+                return;
+            }
+            i += (int) remaining;
+            observed = next_selected;
+            replace (a[i - 1]);
+        }
+    }
+
+    /** Accepts each element that the iterator yields, as if by
+     * accept().  In skip-ahead mode, elements that will not be selected
+     * are passed over without being examined.
+     * @param itor yields the values to be added to this selector
+     **/
+    public void acceptAll (Iterator<? extends T> itor) {
+        if (! skip_mode || heap != null) {
+            while (itor.hasNext()) {
+                accept (itor.next());
+            }
+            return;
+        }
+        while (itor.hasNext()) {
+            T next = itor.next();
+            observed++;
+            if (values.size() < num_elts) {
+                fill (next);
+            } else if (observed == next_selected) {
+                replace (next);
+            }
+        }
+    }
+
+    /** Accepts an element with the given weight.  In fixed sample mode,
+     * the selector becomes weighted:  it must not previously have
+     * accepted unweighted elements, and accept(next) is treated as
+     * accept(next, 1.0) thereafter.  An element of weight 0 is never
+     * selected.
+     *
+     * @param next value to be added to this selector
+     * @param weight the weight of next, which must be non-negative
+     * @throws IllegalArgumentException if weight is negative or NaN
+     * @throws IllegalStateException if this selector has already
+     * accepted unweighted elements in fixed sample mode
+     **/
+    public void accept (T next, double weight) {
+        if (! (weight >= 0)) {
+            throw new IllegalArgumentException ("Illegal weight: " + weight);
+        }
+        if (coin_toss_mode) {
+            if (generator.nextDouble() < weight * keep_probability) {
+                values.add (next);
+            }
+            return;
+        }
+        if (heap == null) {
+            if (observed != 0) {
+                throw new IllegalStateException ("Selector has accepted unweighted elements");
+            }
+            heap = new PriorityQueue<Keyed<T>> ();
+        }
+        observed++;
+        if (weight == 0 || num_elts <= 0) {
+            return;
+        }
+        if (heap.size() < num_elts) {
+            // The key is u^(1/weight), for u uniform in (0,1].
+            heap.add (new Keyed<T> (Math.log (uniform()) / weight, next));
+            if (heap.size() == num_elts) {
+                drawWeightToSkip();
+            }
+            return;
+        }
+        weight_to_skip -= weight;
+        if (weight_to_skip > 0) {
+            return;
+        }
+        // next enters the heap, with a key that exceeds the threshold:
+        // uniform in (t, 1) where t = threshold^weight, then raised to
+        // the power 1/weight.
+        @SuppressWarnings("nullness") // heap is full
+        double log_threshold = heap.peek().log_key;
+        double t = Math.exp (weight * log_threshold);
+        double r = t + (1 - t) * generator.nextDouble();
+        heap.poll();
+        heap.add (new Keyed<T> (Math.max (Math.log (r) / weight, log_threshold), next));
+        drawWeightToSkip();
+    }
+
+    /** Draws the weight to pass over before the next element enters the
+     * full heap.  The weight is exponentially distributed, so it may be
+     * redrawn at any time, such as after a merge.
+     **/
+    @SuppressWarnings("nullness") // heap is non-null and full
+    private void drawWeightToSkip() {
+        double log_threshold = heap.peek().log_key;
+        if (log_threshold >= 0) {
+            // The threshold key is 1, which no element can exceed.
+            weight_to_skip = Double.POSITIVE_INFINITY;
+        } else {
+            weight_to_skip = Math.log (uniform()) / log_threshold;
+        }
+    }
+
+    /** In skip-ahead mode, adds next to the reservoir, which is not
+     * yet full.  Prepares to skip once the reservoir fills.
+     **/
+    private void fill (T next) {
+        values.add (next);
+        if (values.size() == num_elts) {
+            skip_w = Math.exp (Math.log (uniform()) / num_elts);
+            next_selected = advance (observed);
+        }
+    }
+
+    /** In skip-ahead mode, replaces a random element of the (full)
+     * reservoir by next, which is the element numbered next_selected.
+     **/
+    private void replace (T next) {
+        values.set (generator.nextInt (num_elts), next);
+        skip_w *= Math.exp (Math.log (uniform()) / num_elts);
+        next_selected = advance (observed);
+    }
+
+    /** Returns the number of the next element to select after element
+     * number 'from', given the current skip_w.
+     **/
+    private long advance (long from) {
+        // The number of elements to skip is geometrically distributed.
+        double skip = Math.floor (Math.log (uniform()) / Math.log1p (-skip_w));
+        // Saturates, rather than overflowing, for an enormous skip.
+        return from + (long) Math.min (skip, Long.MAX_VALUE / 4) + 1;
+    }
+
+    /** In skip-ahead mode, recomputes skip_w and next_selected for a
+     * full reservoir after 'observed' elements, by simulating the skips
+     * (but not the selections) of Algorithm L.  The reservoir contents
+     * are independent of this state, so the result is exactly
+     * distributed.  Makes O(k log(n/k)) random draws.
+     **/
+    private void resetSkipState() {
+        skip_w = Math.exp (Math.log (uniform()) / num_elts);
+        long pos = advance (num_elts);
+        while (pos <= observed) {
+            skip_w *= Math.exp (Math.log (uniform()) / num_elts);
+            pos = advance (pos);
+        }
+        next_selected = pos;
+    }
+
+    /** Returns a random number in (0, 1]. */
+    private double uniform() {
+        return 1.0 - generator.nextDouble();
+    }
+
+    /** Returns the number of elements accepted so far, in fixed sample
+     * mode, including those accepted by selectors merged into this one.
+     * @return number_observed
+     **/
+    public long getObserved() {
+        return observed;
+    }
+
+    /** Merges other into this, so that current_values becomes a random
+     * selection from the elements accepted by either selector, as if
+     * this had accepted all of them.  Does not modify other.  Afterward,
+     * this may continue to accept elements.
+     *
+     * <P>In fixed sample mode, each of the k selections comes from this
+     * or other with probability proportional to the number of their
+     * elements not yet selected, and is an unused element of that
+     * selector's values, chosen uniformly.  In probability mode, the
+     * values are simply combined.
+     *
+     * @param other a selector with the same mode and parameters as this
+     * @throws IllegalArgumentException if the selectors are incompatible
+     **/
+    public void merge (RandomSelector<? extends T> other) {
+        if (coin_toss_mode != other.coin_toss_mode
+            || num_elts != other.num_elts
+            || keep_probability != other.keep_probability) {
+            throw new IllegalArgumentException ("Incompatible selectors");
+        }
+        if (coin_toss_mode) {
+            values.addAll (other.values);
+            return;
+        }
+        if (heap != null || other.heap != null) {
+            mergeWeighted (other);
+            return;
+        }
+        ArrayList<T> mine = values;
+        ArrayList<T> theirs = new ArrayList<T> (other.values);
+        long mine_left = observed;
+        long theirs_left = other.observed;
+        ArrayList<T> merged = new ArrayList<T> ();
+        while (merged.size() < num_elts && mine_left + theirs_left > 0) {
+            if (generator.nextDouble() * (mine_left + theirs_left) < mine_left) {
+                merged.add (removeRandom (mine));
+                mine_left--;
+            } else {
+                merged.add (removeRandom (theirs));
+                theirs_left--;
+            }
+        }
+        values = merged;
+        observed += other.observed;
+        if (skip_mode && values.size() == num_elts) {
+            resetSkipState();
+        }
+    }
+
+    /** Merges weighted selectors:  the union of the selections, keeping
+     * those with the largest keys.
+     **/
+    private void mergeWeighted (RandomSelector<? extends T> other) {
+        if ((heap == null && observed != 0)
+            || (other.heap == null && other.observed != 0)) {
+            throw new IllegalArgumentException ("Cannot merge weighted and unweighted selectors");
+        }
+        if (heap == null) {
+            heap = new PriorityQueue<Keyed<T>> ();
+        }
+        if (other.heap != null) {
+            for (Keyed<? extends T> keyed : other.heap) {
+                heap.add (new Keyed<T> (keyed.log_key, keyed.value));
+                if (heap.size() > num_elts) {
+                    heap.poll();
+                }
+            }
+        }
+        observed += other.observed;
+        if (num_elts > 0 && heap.size() == num_elts) {
+            drawWeightToSkip();
+        }
+    }
+
+    /** Removes and returns a random element of the non-empty list. */
+    private T removeRandom (ArrayList<T> list) {
+        int i = generator.nextInt (list.size());
+        int last = list.size() - 1;
+        T result = list.get (i);
+        list.set (i, list.get (last));
+        list.remove (last);
+        return result;
+    }
+
+    /** Selects num_elts elements uniformly at random from the list, in
+     * parallel:  disjoint runs of the list are sampled concurrently in
+     * skip-ahead mode, and the samples are merged pairwise.  The list
+     * should support fast random access.
+     * @param <T> the type of elements
+     * @param num_elts The number of elements to select
+     * @param elts the elements to select from
+     * @param r the source of seeds for the random number generators of
+     * the concurrent samplers
+     * @param pool the pool in which to sample
+     * @return a selector, in skip-ahead mode, that has accepted every
+     * element of elts
+     **/
+    public static <T> RandomSelector<T> select (int num_elts, List<? extends T> elts,
+                                                Random r, ForkJoinPool pool) {
+        return pool.invoke (new SelectTask<T> (num_elts, elts, r.nextLong()));
+    }
+
+    /** Samples a run of a list, splitting it in half if it is long. */
+    private static final class SelectTask<T> extends RecursiveTask<RandomSelector<T>> {
+        static final long serialVersionUID = 20261015L;
+
+        /** Runs no longer than this are sampled sequentially. */
+        private static final int LEAF_SIZE = 1 << 14;
+
+        private final int num_elts;
+        private final List<? extends T> elts;
+        private final long seed;
+
+        SelectTask (int num_elts, List<? extends T> elts, long seed) {
+            this.num_elts = num_elts;
+            this.elts = elts;
+            this.seed = seed;
+        }
+
+        protected RandomSelector<T> compute() {
+            Random r = new Random (seed);
+            int n = elts.size();
+            if (n <= LEAF_SIZE) {
+                RandomSelector<T> result = new RandomSelector<T> (num_elts, r, true);
+                result.acceptAll (elts.iterator());
+                return result;
+            }
+            SelectTask<T> left = new SelectTask<T> (num_elts, elts.subList (0, n / 2), r.nextLong());
+            SelectTask<T> right = new SelectTask<T> (num_elts, elts.subList (n / 2, n), r.nextLong());
+            left.fork();
+            RandomSelector<T> result = right.compute();
+            result.merge (left.join());
+            return result;
+        }
+    }
+
+    /** Writes the state of this selector:  everything except its
+     * configuration and its random number generator.  The values must
+     * be Serializable.
+     * @see #readState(ObjectInputStream)
+     **/
+    void writeState (ObjectOutputStream out) throws IOException {
+        out.writeLong (observed);
+        out.writeBoolean (heap != null);
+        if (heap != null) {
+            out.writeInt (heap.size());
+            for (Keyed<T> keyed : heap) {
+                out.writeDouble (keyed.log_key);
+                out.writeObject (keyed.value);
+            }
+        } else {
+            out.writeInt (values.size());
+            for (T value : values) {
+                out.writeObject (value);
+            }
+        }
+    }
+
+    /** Reads state written by writeState into this selector, which must
+     * be new and have the same configuration as the one that wrote it.
+     **/
+    void readState (ObjectInputStream in) throws IOException, ClassNotFoundException {
+        observed = in.readLong();
+        boolean weighted = in.readBoolean();
+        int size = in.readInt();
+        if (weighted) {
+            heap = new PriorityQueue<Keyed<T>> ();
+        }
+        for (int i=0; i<size; i++) {
+            double log_key = weighted ? in.readDouble() : 0;
+            @SuppressWarnings("unchecked")
+            T value = (T) in.readObject();
+            if (weighted) {
+                heap.add (new Keyed<T> (log_key, value));
+            } else {
+                values.add (value);
+            }
+        }
+        if (heap != null && num_elts > 0 && heap.size() == num_elts) {
+            drawWeightToSkip();
+        } else if (skip_mode && num_elts > 0 && values.size() == num_elts) {
+            resetSkipState();
+        }
+    }
+
     /** Returns current_values, modifies none.
      * @return current_values
      **/
     public List<T> getValues() {
         // avoid concurrent mod errors and rep exposure
         ArrayList<T> ret = new ArrayList<T>();
+        if (heap != null) {
+            for (Keyed<T> keyed : heap) {
+                ret.add (keyed.value);
+            }
+            return ret;
+        }
         ret.addAll (values);
         return ret;
     }
@@ -0,0 +1,534 @@
+package plume;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * A hashtable-based map whose keys and values may each be held strongly,
+ * softly, or weakly, and whose keys are hashed and compared by a
+ * {@link Hasher}.  For example:
+ * <ul>
+ *   <li>weak keys and strong values behave like {@link WeakHasherMap};</li>
+ *   <li>weak keys and weak values, with each key mapped to itself, make a
+ *   canonicalizing table such as {@link Intern} uses;</li>
+ *   <li>strong keys and soft values make a cache that the garbage
+ *   collector trims when memory runs short.</li>
+ * </ul>
+ * An entry disappears from the map when the garbage collector clears its
+ * key or its value.
+ * <p>
+ *
+ * Each entry is a single object:  when keys are held softly or weakly,
+ * the entry itself is the reference to the key, as in
+ * {@link java.util.WeakHashMap}.  A softly- or weakly-held value needs a
+ * second reference object, except when the value is the key itself (and
+ * is held no more strongly than the key), which is stored without one.
+ * So a canonicalizing map costs one object per entry, rather than the
+ * three of a <code>WeakHasherMap&lt;K,WeakReference&lt;V&gt;&gt;</code>.
+ * <p>
+ *
+ * As for WeakHasherMap, the garbage collector may appear to remove
+ * entries at any time, and cleared entries are removed from the table
+ * only by mutators.  This map permits neither null keys nor null values.
+ * It is not synchronized, and its iterators are fail-fast.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @see WeakHasherMap
+ **/
+public final class ReferenceHasherMap<K,V> extends AbstractMap<K,V> implements Map<K,V> {
+
+  /** How strongly a map holds its keys or its values. */
+  public static enum Strength {
+    /** Held by ordinary references; never cleared. */
+    STRONG,
+    /** Held by SoftReferences; cleared when memory is short. */
+    SOFT,
+    /** Held by WeakReferences; cleared when no longer strongly reachable. */
+    WEAK
+  }
+
+  private static final int MIN_CAPACITY = 16;
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** The stored value of an entry whose value is its own key. */
+  private static final Object SELF = new Object();
+
+  private final Strength keyStrength;
+  private final Strength valueStrength;
+  private final /*@Nullable*/ Hasher hasher;
+
+  // Length is a power of two.
+  private /*@Nullable*/ Entry[] table = new Entry[MIN_CAPACITY];
+  // The number of entries in the table, including cleared ones.
+  private int count = 0;
+  private int modCount = 0;
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+  /**
+   * Creates a new, empty map that holds its keys and values as specified,
+   * and uses the given hasher for keys.
+   * @param keyStrength how strongly to hold keys
+   * @param valueStrength how strongly to hold values
+   * @param hasher the Hasher to use for keys, or null to use their
+   * equals and hashCode methods
+   **/
+  public ReferenceHasherMap(Strength keyStrength, Strength valueStrength, /*@Nullable*/ Hasher hasher) {
+    this.keyStrength = keyStrength;
+    this.valueStrength = valueStrength;
+    this.hasher = hasher;
+  }
+
+  /* -- Entries -- */
+
+  /**
+   * An entry of the table.  There is one implementation per key
+   * strength, because a softly- or weakly-held key must be the referent
+   * of the entry itself.
+   **/
+  private interface Entry {
+    /** Returns the key, or null if it has been cleared. */
+    /*@Nullable*/ Object key();
+    int hash();
+    /** Returns the stored form of the value:  the value, SELF, or a ValueRef. */
+    Object storedValue();
+    void setStoredValue(Object storedValue);
+    /*@Nullable*/ Entry next();
+    void setNext(/*@Nullable*/ Entry next);
+  }
+
+  private static final class StrongEntry implements Entry {
+    private final Object key;
+    private final int hash;
+    private Object storedValue;
+    private /*@Nullable*/ Entry next;
+    StrongEntry(Object key, int hash, Object storedValue, /*@Nullable*/ Entry next) {
+      this.key = key;
+      this.hash = hash;
+      this.storedValue = storedValue;
+      this.next = next;
+    }
+    public Object key() { return key; }
+    public int hash() { return hash; }
+    public Object storedValue() { return storedValue; }
+    public void setStoredValue(Object storedValue) { this.storedValue = storedValue; }
+    public /*@Nullable*/ Entry next() { return next; }
+    public void setNext(/*@Nullable*/ Entry next) { this.next = next; }
+  }
+
+  private static final class SoftEntry extends SoftReference<Object> implements Entry {
+    private final int hash;
+    private Object storedValue;
+    private /*@Nullable*/ Entry next;
+    SoftEntry(Object key, ReferenceQueue<Object> queue, int hash, Object storedValue, /*@Nullable*/ Entry next) {
+      super(key, queue);
+      this.hash = hash;
+      this.storedValue = storedValue;
+      this.next = next;
+    }
+    public /*@Nullable*/ Object key() { return get(); }
+    public int hash() { return hash; }
+    public Object storedValue() { return storedValue; }
+    public void setStoredValue(Object storedValue) { this.storedValue = storedValue; }
+    public /*@Nullable*/ Entry next() { return next; }
+    public void setNext(/*@Nullable*/ Entry next) { this.next = next; }
+  }
+
+  private static final class WeakEntry extends WeakReference<Object> implements Entry {
+    private final int hash;
+    private Object storedValue;
+    private /*@Nullable*/ Entry next;
+    WeakEntry(Object key, ReferenceQueue<Object> queue, int hash, Object storedValue, /*@Nullable*/ Entry next) {
+      super(key, queue);
+      this.hash = hash;
+      this.storedValue = storedValue;
+      this.next = next;
+    }
+    public /*@Nullable*/ Object key() { return get(); }
+    public int hash() { return hash; }
+    public Object storedValue() { return storedValue; }
+    public void setStoredValue(Object storedValue) { this.storedValue = storedValue; }
+    public /*@Nullable*/ Entry next() { return next; }
+    public void setNext(/*@Nullable*/ Entry next) { this.next = next; }
+  }
+
+  /** A soft or weak reference to a value, which knows its entry. */
+  private interface ValueRef {
+    /*@Nullable*/ Object get();
+    Entry entry();
+  }
+
+  private static final class SoftValue extends SoftReference<Object> implements ValueRef {
+    private final Entry entry;
+    SoftValue(Object value, ReferenceQueue<Object> queue, Entry entry) {
+      super(value, queue);
+      this.entry = entry;
+    }
+    public Entry entry() { return entry; }
+  }
+
+  private static final class WeakValue extends WeakReference<Object> implements ValueRef {
+    private final Entry entry;
+    WeakValue(Object value, ReferenceQueue<Object> queue, Entry entry) {
+      super(value, queue);
+      this.entry = entry;
+    }
+    public Entry entry() { return entry; }
+  }
+
+  private Entry newEntry(Object key, int hash, /*@Nullable*/ Entry next) {
+    switch (keyStrength) {
+    case STRONG:
+      return new StrongEntry(key, hash, SELF, next);
+    case SOFT:
+      return new SoftEntry(key, queue, hash, SELF, next);
+    case WEAK:
+      return new WeakEntry(key, queue, hash, SELF, next);
+    default:
+      throw new Error("Unexpected strength " + keyStrength);
+    }
+  }
+
+  /** Sets the value of the entry, whose key is key. */
+  private void setValue(Entry e, Object key, Object value) {
+    if (value == key
+        && (valueStrength == keyStrength || keyStrength == Strength.STRONG)) {
+      // The value lives exactly as long as the key does.
+      e.setStoredValue(SELF);
+      return;
+    }
+    switch (valueStrength) {
+    case STRONG:
+      e.setStoredValue(value);
+      break;
+    case SOFT:
+      e.setStoredValue(new SoftValue(value, queue, e));
+      break;
+    case WEAK:
+      e.setStoredValue(new WeakValue(value, queue, e));
+      break;
+    default:
+      throw new Error("Unexpected strength " + valueStrength);
+    }
+  }
+
+  /** Returns the value of the entry, or null if its key or value has been cleared. */
+  private /*@Nullable*/ Object value(Entry e) {
+    Object stored = e.storedValue();
+    if (stored == SELF) {
+      return e.key();
+    } else if (stored instanceof ValueRef && valueStrength != Strength.STRONG) {
+      return (e.key() == null) ? null : ((ValueRef) stored).get();
+    } else {
+      return (e.key() == null) ? null : stored;
+    }
+  }
+
+  /* -- Hashing -- */
+
+  private int keyHashCode(Object key) {
+    int h = (hasher == null) ? key.hashCode() : hasher.hashCode(key);
+    return h ^ (h >>> 16);      // spread high bits into the index
+  }
+
+  private boolean keyEquals(Object key1, Object key2) {
+    return (key1 == key2)
+      || ((hasher == null) ? key1.equals(key2) : hasher.equals(key1, key2));
+  }
+
+  /** Returns the live entry for the key, or null. */
+  private /*@Nullable*/ Entry getEntry(Object key) {
+    int h = keyHashCode(key);
+    /*@Nullable*/ Entry[] tab = table;
+    for (Entry e = tab[h & (tab.length - 1)]; e != null; e = e.next()) {
+      if (e.hash() == h) {
+        Object k = e.key();
+        if (k != null && keyEquals(key, k) && value(e) != null) {
+          return e;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Unlinks the entry, which is identified by identity, as a modification of the map. */
+  private boolean removeEntry(Entry target) {
+    /*@Nullable*/ Entry[] tab = table;
+    int i = target.hash() & (tab.length - 1);
+    Entry prev = null;
+    for (Entry e = tab[i]; e != null; prev = e, e = e.next()) {
+      if (e == target) {
+        if (prev == null) {
+          tab[i] = e.next();
+        } else {
+          prev.setNext(e.next());
+        }
+        e.setNext(null);
+        count--;
+        modCount++;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the entries whose keys or values have been cleared by the
+   * garbage collector.  Mutators call this method, so clients need to
+   * call it only to reclaim space in a map that is no longer being
+   * updated.
+   **/
+  public void expungeStaleEntries() {
+    Reference<?> r;
+    while ((r = queue.poll()) != null) {
+      if (r instanceof ValueRef) {
+        Entry e = ((ValueRef) r).entry();
+        if (e.storedValue() == r) {
+          removeEntry(e);
+        }
+      } else {
+        removeEntry((Entry) r);
+      }
+    }
+  }
+
+  private void resize(int newCapacity) {
+    /*@Nullable*/ Entry[] oldTable = table;
+    /*@Nullable*/ Entry[] newTable = new Entry[newCapacity];
+    for (int j = 0; j < oldTable.length; j++) {
+      Entry e = oldTable[j];
+      while (e != null) {
+        Entry next = e.next();
+        if (value(e) == null) {
+          // Cleared:  drop it now.  It will be ignored when dequeued.
+          e.setNext(null);
+          count--;
+        } else {
+          int i = e.hash() & (newCapacity - 1);
+          e.setNext(newTable[i]);
+          newTable[i] = e;
+        }
+        e = next;
+      }
+    }
+    table = newTable;
+  }
+
+  /* -- Queries -- */
+
+  /**
+   * Returns the number of key-value mappings in this map.
+   * <strong>Note:</strong> <em>In contrast to most implementations of the
+   * <code>Map</code> interface, the time required by this operation is
+   * linear in the size of the map.</em>
+   **/
+  /*@Pure*/ public int size() {
+    int result = 0;
+    for (Entry e : table) {
+      for ( ; e != null; e = e.next()) {
+        if (value(e) != null) {
+          result++;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Returns the number of buckets in the table. */
+  int capacity() {
+    return table.length;
+  }
+
+  /*@Pure*/ public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /*@Pure*/ public boolean containsKey(/*@Nullable*/ Object key) {
+    return key != null && getEntry(key) != null;
+  }
+
+  /*@Pure*/ public /*@Nullable*/ V get(/*@Nullable*/ Object key) {
+    if (key == null) {
+      return null;
+    }
+    Entry e = getEntry(key);
+    if (e == null) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    V result = (V) value(e);
+    return result;
+  }
+
+  /**
+   * Returns the key in this map that is equal to the given key, or
+   * null if there is none.  Useful for canonicalization.
+   * @param key the key to look up
+   * @return the key in this map that equals key, or null
+   **/
+  /*@Pure*/ public /*@Nullable*/ K getKey(Object key) {
+    Entry e = getEntry(key);
+    @SuppressWarnings("unchecked")
+    K result = (e == null) ? null : (K) e.key();
+    return result;
+  }
+
+  /* -- Updates -- */
+
+  public /*@Nullable*/ V put(K key, V value) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    expungeStaleEntries();
+    int h = keyHashCode(key);
+    /*@Nullable*/ Entry[] tab = table;
+    int i = h & (tab.length - 1);
+    for (Entry e = tab[i]; e != null; e = e.next()) {
+      if (e.hash() == h) {
+        Object k = e.key();
+        if (k != null && keyEquals(key, k)) {
+          @SuppressWarnings("unchecked")
+          V old = (V) value(e);
+          // Keep the existing key, as HashMap does.
+          setValue(e, k, value);
+          return old;
+        }
+      }
+    }
+    Entry e = newEntry(key, h, tab[i]);
+    setValue(e, key, value);
+    tab[i] = e;
+    count++;
+    modCount++;
+    if (count > tab.length * 3 / 4 && tab.length < MAXIMUM_CAPACITY) {
+      resize(tab.length * 2);
+    }
+    return null;
+  }
+
+  public /*@Nullable*/ V remove(/*@Nullable*/ Object key) {
+    expungeStaleEntries();
+    if (key == null) {
+      return null;
+    }
+    Entry e = getEntry(key);
+    if (e == null) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    V old = (V) value(e);
+    removeEntry(e);
+    return old;
+  }
+
+  public void clear() {
+    while (queue.poll() != null)
+      ;
+    table = new Entry[MIN_CAPACITY];
+    count = 0;
+    modCount++;
+  }
+
+  /* -- Views -- */
+
+  private final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+    private int index = 0;
+    private /*@Nullable*/ Entry entry = null;
+    // Strong references to the next key and value, so that they are not
+    // cleared between hasNext and next.
+    private /*@Nullable*/ Object nextKey = null;
+    private /*@Nullable*/ Object nextValue = null;
+    private /*@Nullable*/ Entry lastReturned = null;
+    private int expectedModCount = modCount;
+
+    public boolean hasNext() {
+      /*@Nullable*/ Entry[] tab = table;
+      while (nextKey == null) {
+        if (entry == null) {
+          if (index >= tab.length) {
+            return false;
+          }
+          entry = tab[index++];
+          continue;
+        }
+        Object v = value(entry);
+        if (v != null) {
+          nextKey = entry.key();
+          nextValue = v;
+          if (nextKey != null) {
+            return true;
+          }
+        }
+        entry = entry.next();
+      }
+      return true;
+    }
+
+    public Map.Entry<K,V> next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (! hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = entry;
+      @SuppressWarnings("unchecked")
+      Map.Entry<K,V> result = new AbstractMap.SimpleImmutableEntry<K,V>((K) nextKey, (V) nextValue);
+      assert entry != null : "@AssumeAssertion(nullness): hasNext()";
+      entry = entry.next();
+      nextKey = null;
+      nextValue = null;
+      return result;
+    }
+
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeEntry(lastReturned);
+      expectedModCount = modCount;
+      lastReturned = null;
+    }
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+    public Iterator<Map.Entry<K,V>> iterator() {
+      return new EntryIterator();
+    }
+    /*@Pure*/ public int size() {
+      return ReferenceHasherMap.this.size();
+    }
+    public void clear() {
+      ReferenceHasherMap.this.clear();
+    }
+  }
+
+  private /*@Nullable*/ Set<Map.Entry<K,V>> entrySet = null;
+
+  /**
+   * Returns a <code>Set</code> view of the mappings in this map.  Its
+   * entries are immutable; use {@link #put} to change a value.
+   **/
+  /*@SideEffectFree*/ public Set<Map.Entry<K,V>> entrySet() {
+    if (entrySet == null) entrySet = new EntrySet();
+    return entrySet;
+  }
+
+}
@@ -0,0 +1,236 @@
+package plume;
+
+import java.util.*;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+import org.checkerframework.dataflow.qual.*;
+*/
+
+/**
+ * An immutable sequence that shares storage with every other sequence
+ * that has the same prefix.  The elements are stored in chunks of up to
+ * CHUNK elements:  a non-empty sequence is represented by its last chunk
+ * and a pointer to the canonical sequence of its other elements, whose
+ * length is a multiple of CHUNK.  So a set of sequences with long common
+ * prefixes (such as call stacks) forms a trie, and each distinct chunk of
+ * a prefix is stored only once.  A chunk of Integers is stored as an
+ * int[], without boxing.
+ * <p>
+ *
+ * Sequences are created only by interning, via
+ * {@link Intern#internSharedPrefix(int[])},
+ * {@link Intern#internSharedPrefix(String[])}, and
+ * {@link Intern#internAppend(SharedPrefixSequence, Object)}, so two
+ * sequences are equal if and only if they are ==.
+ * <p>
+ *
+ * Each chunk costs about 160 bytes, including its entry in the interning
+ * table:  about 10 bytes per element, versus 4 bytes in an int[].  So
+ * this representation saves space only when most elements of a typical
+ * sequence lie in whole chunks of a prefix shared with other sequences.
+ * For sets of sequences of 200 ints, the break-even point is when about
+ * 65% of each sequence is shared; at 90%, the sequences take a third of
+ * the space of arrays interned by {@link Intern#intern(int[])}.  Accessing
+ * an element takes time proportional to its distance from the end of the
+ * sequence, divided by CHUNK.
+ *
+ * @param <E> the type of the elements
+ **/
+public final class SharedPrefixSequence<E> {
+
+  /** The maximum number of elements in a chunk. */
+  static final int CHUNK = 16;
+
+  /** The empty sequence, which is the root of every trie. */
+  private static final SharedPrefixSequence<Object> EMPTY
+    = new SharedPrefixSequence<Object>(null, new Object[0]);
+
+  /**
+   * All but the last chunk, whose length is a multiple of CHUNK; null
+   * only for the empty sequence.
+   **/
+  final /*@Nullable*/ SharedPrefixSequence<E> base;
+  /**
+   * The last chunk, of 1 to CHUNK elements (none for the empty
+   * sequence).  An int[] if every element is an Integer, and otherwise
+   * an Object[].
+   **/
+  final Object tail;
+  private final int length;
+  private final int hash;
+
+  /** Use Intern.internAppend to create sequences. */
+  SharedPrefixSequence(/*@Nullable*/ SharedPrefixSequence<E> base, Object tail) {
+    this.base = base;
+    this.tail = tail;
+    this.length = (base == null) ? 0 : base.length + tailLength(tail);
+    this.hash = hashCode(base, tail);
+  }
+
+  /**
+   * The hash code of the sequence with the given base and last chunk, as
+   * used by the interning table.  Depends on the identity of the base,
+   * which is canonical.
+   **/
+  static int hashCode(/*@Nullable*/ Object base, Object tail) {
+    int tail_hash = (tail instanceof int[]) ? Arrays.hashCode((int[]) tail) : Arrays.hashCode((Object[]) tail);
+    return System.identityHashCode(base) * 31 + tail_hash;
+  }
+
+  /**
+   * Returns true if the two chunks have equal elements.  Each chunk must
+   * be an int[] exactly when its elements are all Integers.
+   **/
+  static boolean tailsEqual(Object tail1, Object tail2) {
+    if (tail1 instanceof int[]) {
+      return (tail2 instanceof int[]) && Arrays.equals((int[]) tail1, (int[]) tail2);
+    }
+    return (tail2 instanceof Object[]) && Arrays.equals((Object[]) tail1, (Object[]) tail2);
+  }
+
+  /**
+   * Returns a chunk with the given elements:  an int[] if they are all
+   * Integers, and otherwise the argument.
+   **/
+  static Object toTail(/*@Nullable*/ Object[] elts) {
+    int[] ints = new int[elts.length];
+    for (int i=0; i<elts.length; i++) {
+      if (! (elts[i] instanceof Integer)) {
+        return elts;
+      }
+      ints[i] = ((Integer) elts[i]).intValue();
+    }
+    return ints;
+  }
+
+  static int tailLength(Object tail) {
+    return (tail instanceof int[]) ? ((int[]) tail).length : ((Object[]) tail).length;
+  }
+
+  /** Returns element i of the last chunk. */
+  @SuppressWarnings("unchecked") // an int[] chunk holds Integer elements
+  private /*@Nullable*/ E tailElement(int i) {
+    if (tail instanceof int[]) {
+      return (E) Intern.internedInteger(((int[]) tail)[i]);
+    }
+    return (E) ((Object[]) tail)[i];
+  }
+
+  /** The cached value of hashCode(base, tail). */
+  int hash() {
+    return hash;
+  }
+
+  /**
+   * Returns the empty sequence.
+   * @param <E> the type of the elements
+   * @return the empty sequence
+   **/
+  @SuppressWarnings("unchecked") // the empty sequence has no elements of any type
+  public static <E> SharedPrefixSequence<E> empty() {
+    return (SharedPrefixSequence<E>) EMPTY;
+  }
+
+  /**
+   * Returns the number of elements in this sequence.
+   * @return the number of elements in this sequence
+   **/
+  /*@Pure*/ public int length() {
+    return length;
+  }
+
+  /**
+   * Returns this sequence without its last element.  Unless the last
+   * chunk has only one element, this interns a new sequence.
+   * @return the canonical sequence of all but the last element
+   * @throws NoSuchElementException if this sequence is empty
+   **/
+  public SharedPrefixSequence<E> prefix() {
+    if (base == null) {
+      throw new NoSuchElementException();
+    }
+    int n = tailLength(tail);
+    if (n == 1) {
+      return base;
+    }
+    Object shorter = (tail instanceof int[])
+      ? (Object) Arrays.copyOf((int[]) tail, n - 1)
+      : toTail(Arrays.copyOf((Object[]) tail, n - 1));
+    return Intern.internChunk(base, shorter);
+  }
+
+  /**
+   * Returns the last element of this sequence.
+   * @return the last element of this sequence
+   * @throws NoSuchElementException if this sequence is empty
+   **/
+  /*@Pure*/ public /*@Nullable*/ E last() {
+    if (base == null) {
+      throw new NoSuchElementException();
+    }
+    return tailElement(tailLength(tail) - 1);
+  }
+
+  /**
+   * Returns the element at the given index.
+   * Takes time proportional to (length() - index) / CHUNK.
+   * @param index the index of the element to return
+   * @return the element at the given index
+   * @throws IndexOutOfBoundsException if index is out of range
+   **/
+  /*@Pure*/ public /*@Nullable*/ E get(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + " for length " + length);
+    }
+    SharedPrefixSequence<E> seq = this;
+    while (true) {
+      SharedPrefixSequence<E> b = seq.base;
+      assert b != null : "@AssumeAssertion(nullness): length > index";
+      if (index >= b.length) {
+        return seq.tailElement(index - b.length);
+      }
+      seq = b;
+    }
+  }
+
+  /**
+   * Returns the elements of this sequence, in order.
+   * @return a new list of the elements of this sequence
+   **/
+  /*@SideEffectFree*/ public List</*@Nullable*/ E> toList() {
+    @SuppressWarnings("unchecked")
+    /*@Nullable*/ E[] elts = (/*@Nullable*/ E[]) new Object[length];
+    for (SharedPrefixSequence<E> seq = this; seq.base != null; seq = seq.base) {
+      int n = tailLength(seq.tail);
+      for (int i=0; i<n; i++) {
+        elts[seq.base.length + i] = seq.tailElement(i);
+      }
+    }
+    return Arrays.asList(elts);
+  }
+
+  /**
+   * Returns the elements of this sequence, whose elements must be
+   * Integers, as an int[].
+   * @return a new array of the elements of this sequence
+   * @throws ClassCastException if some element is not an Integer
+   **/
+  /*@SideEffectFree*/ public int[] toIntArray() {
+    int[] result = new int[length];
+    for (SharedPrefixSequence<E> seq = this; seq.base != null; seq = seq.base) {
+      if (seq.tail instanceof int[]) {
+        int[] chunk = (int[]) seq.tail;
+        System.arraycopy(chunk, 0, result, seq.base.length, chunk.length);
+      } else {
+        throw new ClassCastException("Not an Integer sequence: " + this);
+      }
+    }
+    return result;
+  }
+
+  /*@SideEffectFree*/ public String toString() {
+    return toList().toString();
+  }
+
+}
@@ -20,17 +20,28 @@ import org.checkerframework.checker.signature.qual.*;
 // ArraysMDE.java
 // Assert.java
 // ClassFileVersion.java
+// ConcurrentLimitedSizeSet.java
+// ConcurrentMultiRandSelector.java
+// ConcurrentWeakHasherMap.java
 // CountingPrintWriter.java
 // Digest.java
 // FileIOException.java
 // FuzzyFloat.java
 // GraphMDE.java
 // Hasher.java
+// HasherMap.java
+// HasherSet.java
 // Intern.java
+// LimitedSizeDoubleSet.java
 // LimitedSizeIntSet.java
+// LimitedSizeLongSet.java
 // MathMDE.java
+// MultiRandSelector.java
 // Options.java
+// OpenWeakIdentityHashMap.java
 // OrderedPairIterator.java
+// RandomSelector.java
+// ReferenceHasherMap.java
 // StringBuilderDelimited.java
 // UtilMDE.java
 // WeakHasherMap.java
@@ -173,6 +184,42 @@ public final class TestPlume extends TestCase {
     assert 10 == ArraysMDE.sum(new int[] {10});
     assert 10 == ArraysMDE.sum(new int[] {1, 2, 3, 4});
 
+    // The unrolled loops agree with a simple scan, for every remainder
+    // and position of the extreme or sought element.
+    Random r = new Random(20261015);
+    for (int len=1; len<14; len++) {
+      for (int trial=0; trial<20; trial++) {
+        int[] ia = new int[len];
+        long[] la = new long[len];
+        double[] da = new double[len];
+        int imin = Integer.MAX_VALUE, imax = Integer.MIN_VALUE, isum = 0;
+        for (int i=0; i<len; i++) {
+          ia[i] = r.nextInt();
+          la[i] = r.nextLong();
+          da[i] = r.nextGaussian();
+          imin = Math.min(imin, ia[i]);
+          imax = Math.max(imax, ia[i]);
+          isum += ia[i];
+        }
+        assert ArraysMDE.min(ia) == imin && ArraysMDE.max(ia) == imax;
+        assert ArraysMDE.sum(ia) == isum;
+        assert ArraysMDE.element_range(ia) == imax - imin;
+        int k = r.nextInt(len);
+        assert ArraysMDE.indexOf(ia, ia[k]) == k;
+        assert ArraysMDE.indexOf(la, la[k]) == k;
+        assert ArraysMDE.indexOf(da, da[k]) == k;
+        assert ArraysMDE.indexOf(ia, ia[k], k, len) == k;
+        assert ArraysMDE.indexOf(ia, ia[k], k + 1, len) == -1;
+        la[k] = Long.MIN_VALUE;
+        assert ArraysMDE.min(la) == Long.MIN_VALUE && ArraysMDE.min_max(la)[0] == Long.MIN_VALUE;
+        da[k] = 1e300;
+        assert ArraysMDE.max(da) == 1e300;
+        da[k] = Double.NaN;
+        assert Double.isNaN(ArraysMDE.min(da)) && Double.isNaN(ArraysMDE.max(da));
+        assert ArraysMDE.indexOf(da, Double.NaN) == -1;
+      }
+    }
+
     // public static int sum(int[][] a)
     assert 0 == ArraysMDE.sum(new int[0][0]);
     assert 78  == ArraysMDE.sum
@@ -1090,6 +1137,301 @@ public final class TestPlume extends TestCase {
     }
   }
 
+  // Tests the tables that intern Integers, Longs, and Doubles, which are
+  // keyed by primitive values.
+  public static void testInternPrimitives() {
+    int n = 10000;
+    Integer[] ints = new Integer[n];
+    Long[] longs = new Long[n];
+    Double[] doubles = new Double[n];
+    for (int i=0; i<n; i++) {
+      ints[i] = Intern.internedInteger(i * 7919);
+      longs[i] = Intern.internedLong(i * 12345678901L);
+      doubles[i] = Intern.internedDouble(i / 3.0);
+    }
+    assert Intern.numIntegers() >= n;
+    for (int i=0; i<n; i++) {
+      assert ints[i] == Intern.intern(new Integer(i * 7919));
+      assert ints[i] == Intern.internedInteger(i * 7919);
+      assert longs[i] == Intern.intern(new Long(i * 12345678901L));
+      assert longs[i] == Intern.internedLong(i * 12345678901L);
+      assert doubles[i] == Intern.intern(new Double(i / 3.0));
+      assert doubles[i] == Intern.internedDouble(i / 3.0);
+    }
+    assert Intern.internedDouble(Double.NaN) == Intern.intern(new Double(0.0 / 0.0));
+    assert Intern.internedDouble(-0.0) == Intern.intern(new Double(+0.0));
+    assert Intern.internedDouble(Double.NEGATIVE_INFINITY).doubleValue() == Double.NEGATIVE_INFINITY;
+  }
+
+  public static void testInternAll() {
+    Intern.setConcurrencyLevel(4);
+    try {
+      int n = 1000;
+      int[][] arrays = new int[n][];
+      Integer[] ints = new Integer[n];
+      Double[] doubles = new Double[n];
+      List<Object> mixed = new ArrayList<Object>();
+      for (int i=0; i<n; i++) {
+        arrays[i] = new int[] { 20150801, i % 10 };
+        ints[i] = new Integer(100000 + i % 10);
+        doubles[i] = new Double((i % 3 == 0) ? -0.0 : i % 10);
+        mixed.add((i % 2 == 0) ? (Object) new long[] { i % 10 } : (Object) new Long(i % 10));
+      }
+      arrays[3] = null;
+      assert Intern.internAll(arrays) == arrays;
+      Intern.internAll(ints);
+      Intern.internAll(doubles);
+      Intern.internAll(mixed);
+      for (int i=0; i<n; i++) {
+        if (i != 3) {
+          assert arrays[i] == Intern.intern(new int[] { 20150801, i % 10 });
+        }
+        assert ints[i] == Intern.internedInteger(100000 + i % 10);
+        assert doubles[i] == Intern.intern(doubles[i]);
+        assert mixed.get(i) == Intern.intern(mixed.get(i));
+      }
+      assert arrays[3] == null;
+      assert doubles[0] == Intern.internedDouble(0.0);
+
+      List<String> strings = new ArrayList<String>();
+      for (int i=0; i<600; i++) {
+        strings.add(new String("s" + (i % 10)));
+      }
+      Iterator<String> interned = Intern.internAll(strings.iterator());
+      for (int i=0; i<600; i++) {
+        assert interned.next() == ("s" + (i % 10)).intern();
+      }
+      assert ! interned.hasNext();
+    } finally {
+      Intern.setConcurrencyLevel(1);
+    }
+  }
+
+  public static void testInternSubsequence() {
+    int[] seq = Intern.intern(new int[] { 20150802, 1, 2, 3, 4 });
+    int[] mid = Intern.intern(new int[] { 1, 2, 3 });
+    assert Intern.internSubsequence(seq, 1, 4) == mid;
+    assert Intern.internSubsequence(seq, 1, 4) == mid;
+    int[] tail = Intern.internSubsequence(seq, 3, 5);
+    assert tail == Intern.intern(new int[] { 3, 4 });
+    assert Intern.internSubsequence(seq, 2, 2) == Intern.intern(new int[0]);
+
+    double[] dseq = Intern.intern(new double[] { 20150802, Double.NaN, -0.0 });
+    double[] dtail = Intern.intern(new double[] { Double.NaN, 0.0 });
+    assert Intern.internSubsequence(dseq, 1, 3) == dtail;
+
+    String[] sseq = Intern.intern(new String[] { "a", null, "b", "c" });
+    String[] stail = Intern.intern(new String[] { null, "b" });
+    assert Intern.internSubsequence(sseq, 1, 3) == stail;
+    assert Intern.internSubsequence(sseq, 2, 4) == Intern.intern(new String[] { "b", "c" });
+  }
+
+  public static void testInternHotSet() {
+    Intern.setHotSetCapacity(long[].class, 2);
+    try {
+      Intern.intern(new long[] { 20150803L, 1 });
+      java.lang.ref.WeakReference<long[]> second
+        = new java.lang.ref.WeakReference<long[]>(Intern.intern(new long[] { 20150803L, 2 }));
+      java.lang.ref.WeakReference<long[]> third
+        = new java.lang.ref.WeakReference<long[]>(Intern.intern(new long[] { 20150803L, 3 }));
+      // Looking up the second value makes the first the least recently used.
+      assert Intern.intern(new long[] { 20150803L, 2 }) == second.get();
+      System.gc();
+      assert second.get() != null;
+      assert third.get() != null;
+      assert Intern.intern(new long[] { 20150803L, 3 }) == third.get();
+      assert Intern.hotSetCapacity(long[].class) == 2;
+      // Resizing the table keeps the hot values.
+      Intern.setConcurrencyLevel(4);
+      System.gc();
+      assert third.get() != null;
+    } finally {
+      Intern.setConcurrencyLevel(1);
+      Intern.setHotSetCapacity(long[].class, 0);
+    }
+  }
+
+  public static void testInternSnapshot() throws IOException {
+    int[] ints = Intern.intern(new int[] { 20150804, -1 });
+    double[] doubles = Intern.intern(new double[] { 20150804, Double.NaN });
+    String[] strings = Intern.intern(new String[] { "snap\u00e9", null, "snap\u00e9" });
+    Long big = Intern.internedLong(20150804L << 32);
+    File file = File.createTempFile("intern", ".snapshot");
+    try {
+      Intern.saveSnapshot(file);
+      List<Object> loaded = Intern.loadSnapshot(file);
+      assert loaded.contains(ints);
+      assert loaded.contains(doubles);
+      assert loaded.contains(strings);
+      assert loaded.contains(big);
+      for (Object o : loaded) {
+        assert Intern.isInterned(o) : o;
+      }
+
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        out.write(new byte[] { 1, 2, 3 });
+      }
+      try {
+        Intern.loadSnapshot(file);
+        assert false : "loaded a corrupt snapshot";
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  public static void testInternRegisteredTypes() {
+    Intern.registerType(java.math.BigInteger.class, null);
+    // BigDecimals that differ only in scale, such as 1.0 and 1.00, are equal.
+    Intern.registerType(java.math.BigDecimal.class, new Hasher() {
+        public int hashCode(Object o) {
+          return ((java.math.BigDecimal) o).stripTrailingZeros().hashCode();
+        }
+        public boolean equals(Object o1, Object o2) {
+          return ((java.math.BigDecimal) o1).compareTo((java.math.BigDecimal) o2) == 0;
+        }
+      });
+
+    java.math.BigInteger big = Intern.internRegistered(new java.math.BigInteger("20150805000000000000"));
+    assert big == Intern.internRegistered(new java.math.BigInteger("20150805000000000000"));
+    assert big == Intern.intern((Object) new java.math.BigInteger("20150805000000000000"));
+    assert Intern.isInterned(big);
+    assert ! Intern.isInterned(new java.math.BigInteger("20150805000000000000"));
+
+    java.math.BigDecimal one = Intern.internRegistered(new java.math.BigDecimal("1.0"));
+    assert one == Intern.internRegistered(new java.math.BigDecimal("1.00"));
+
+    boolean found = false;
+    for (InternStatistics stats : Intern.statistics()) {
+      if (stats.getName().equals("java.math.BigDecimal")) {
+        found = true;
+        assert stats.getSize() >= 1 : stats;
+      }
+    }
+    assert found;
+
+    try {
+      Intern.internRegistered(new StringBuilder());
+      assert false : "interned an unregistered type";
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public static void testInternSharedPrefix() {
+    SharedPrefixSequence<String> stack1 = Intern.internSharedPrefix(new String[] { "main", "run", "f" });
+    SharedPrefixSequence<String> stack2 = Intern.internSharedPrefix(new String[] { "main", "run", "g" });
+    assert stack1 != stack2;
+    assert stack1.prefix() == stack2.prefix();
+    assert stack1 == Intern.internSharedPrefix(new String[] { "main", "run", "f" });
+    assert stack2 == Intern.internAppend(Intern.internSharedPrefix(new String[] { "main", "run" }), "g");
+    assert stack1.length() == 3;
+    assert stack1.get(1).equals("run");
+    assert stack1.last().equals("f");
+    assert stack1.toList().equals(Arrays.asList("main", "run", "f"));
+    assert Intern.internSharedPrefix(new String[0]) == SharedPrefixSequence.<String>empty();
+    assert Intern.internSharedPrefix(new String[] { null }).toList().equals(Arrays.asList((String) null));
+
+    SharedPrefixSequence<Integer> ints = Intern.internSharedPrefix(new int[] { 20150806, 1, 2 });
+    assert ints == Intern.internSharedPrefix(new int[] { 20150806, 1, 2 });
+    assert ints.prefix() == Intern.internSharedPrefix(new int[] { 20150806, 1 });
+    assert Arrays.equals(ints.toIntArray(), new int[] { 20150806, 1, 2 });
+
+    // Sequences longer than a chunk
+    int[] longArray = new int[40];
+    for (int i=0; i<longArray.length; i++) {
+      longArray[i] = 20261015 + i;
+    }
+    SharedPrefixSequence<Integer> longSeq = Intern.internSharedPrefix(longArray);
+    SharedPrefixSequence<Integer> appended = SharedPrefixSequence.empty();
+    for (int i=0; i<longArray.length; i++) {
+      appended = Intern.internAppend(appended, longArray[i]);
+      assert appended == Intern.internSharedPrefix(Arrays.copyOf(longArray, i + 1)) : i;
+    }
+    assert appended == longSeq;
+    assert longSeq.length() == 40 && Arrays.equals(longSeq.toIntArray(), longArray);
+    SharedPrefixSequence<Integer> shorter = longSeq;
+    for (int i=longArray.length-1; i>=0; i--) {
+      assert shorter.get(i) == longArray[i] && shorter.last() == longArray[i];
+      shorter = shorter.prefix();
+      assert shorter == Intern.internSharedPrefix(Arrays.copyOf(longArray, i)) : i;
+    }
+    assert shorter == SharedPrefixSequence.<Integer>empty();
+    // A chunk that mixes Integers with other elements
+    SharedPrefixSequence<Object> mixed = Intern.<Object>internAppend(Intern.<Object>internAppend(SharedPrefixSequence.empty(), 1), "two");
+    assert mixed.toList().equals(Arrays.<Object>asList(1, "two"));
+    assert mixed.prefix() == Intern.<Object>internAppend(SharedPrefixSequence.empty(), 1);
+    try {
+      mixed.toIntArray();
+      assert false;
+    } catch (ClassCastException e) {
+      // expected
+    }
+  }
+
+  public static void testInternStatistics() throws Exception {
+    Intern.resetStatistics();
+    long[] canonical = Intern.intern(new long[] { 20150729L, 1, 2, 3 });
+    for (int i=0; i<10; i++) {
+      assert canonical == Intern.intern(new long[] { 20150729L, 1, 2, 3 });
+    }
+    InternStatistics longArrayStats = null;
+    for (InternStatistics stats : Intern.statistics()) {
+      if (stats.getName().equals("long[]")) {
+        longArrayStats = stats;
+      }
+    }
+    assert longArrayStats != null;
+    assert longArrayStats.getLookups() >= 11 : longArrayStats;
+    assert longArrayStats.getHits() >= 10 : longArrayStats;
+    assert longArrayStats.getEstimatedBytesSaved() >= 10 * 48 : longArrayStats;
+    assert longArrayStats.getSize() >= 1 : longArrayStats;
+    assert longArrayStats.getCapacity() >= longArrayStats.getSize() : longArrayStats;
+
+    Intern.registerMXBean();
+    Intern.registerMXBean();    // a second registration is harmless
+    javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+    Object saved = server.getAttribute(new javax.management.ObjectName(Intern.MXBEAN_NAME), "EstimatedBytesSaved");
+    assert ((Long) saved).longValue() >= 10 * 48 : saved;
+  }
+
+  // Interns equal arrays from several threads at once, and checks that
+  // every thread gets the same canonical representative.
+  public static void testInternConcurrent() throws InterruptedException {
+    Intern.setConcurrencyLevel(8);
+    try {
+      final int numThreads = 4;
+      final int numArrays = 1000;
+      final int[][][] results = new int[numThreads][][];
+      Thread[] threads = new Thread[numThreads];
+      for (int t=0; t<numThreads; t++) {
+        final int thread = t;
+        threads[t] = new Thread() {
+            public void run() {
+              int[][] interned = new int[numArrays][];
+              for (int i=0; i<numArrays; i++) {
+                interned[i] = Intern.intern(new int[] { i, i+1, 20150729 });
+              }
+              results[thread] = interned;
+            }
+          };
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      for (int i=0; i<numArrays; i++) {
+        for (int t=1; t<numThreads; t++) {
+          assert results[t][i] == results[0][i];
+        }
+      }
+    } finally {
+      Intern.setConcurrencyLevel(1);
+    }
+  }
+
   // Add 100 elements randomly selected from the range 0..limit-1 to the set.
   private static void lsis_add_elts(int limit, LimitedSizeSet<Integer> s) {
     Random r = new Random(20140613);
@@ -1125,11 +1467,438 @@ public final class TestPlume extends TestCase {
   }
 
 
+  // Sets larger than the index threshold use a hash index.
+  private static void lss_indexed_test() {
+    LimitedSizeIntSet is = new LimitedSizeIntSet(100);
+    LimitedSizeSet</*@Nullable*/ Integer> s = new LimitedSizeSet</*@Nullable*/ Integer>(100);
+    for (int rep=0; rep<2; rep++) {
+      for (int i=0; i<99; i++) {
+        is.add(i * 1024);
+        s.add(i * 1024);
+      }
+    }
+    s.add(null);
+    is.add(-1);
+    assert is.size() == 100 && s.size() == 100;
+    assert is.contains(98 * 1024) && ! is.contains(1);
+    assert s.contains(98 * 1024) && s.contains(null) && ! s.contains(1);
+
+    LimitedSizeIntSet isClone = is.clone();
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(s);
+      out.close();
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+      @SuppressWarnings("unchecked")
+      LimitedSizeSet</*@Nullable*/ Integer> copy = (LimitedSizeSet</*@Nullable*/ Integer>) in.readObject();
+      assert copy.size() == 100 && copy.contains(5 * 1024) && copy.contains(null) && ! copy.contains(5);
+      copy.add(5);
+      assert copy.repNulled();
+    } catch (Exception e) {
+      throw new Error(e);
+    }
+
+    is.add(7);
+    assert is.repNulled() && is.size() == 101;
+    assert ! isClone.repNulled() && isClone.contains(-1) && ! isClone.contains(7);
+    isClone.add(-1);
+    assert isClone.size() == 100;
+  }
+
+  // Overflowed sets with sketches still estimate their size.
+  private static void lss_sketch_test() {
+    LimitedSizeIntSet plain = new LimitedSizeIntSet(10);
+    LimitedSizeIntSet low = new LimitedSizeIntSet(10);
+    LimitedSizeIntSet high = new LimitedSizeIntSet(10);
+    low.enableOverflowSketch();
+    high.enableOverflowSketch();
+    for (int i=0; i<5000; i++) {
+      plain.add(i);
+      low.add(i);
+      low.add(i);
+      high.add(i + 5000);
+    }
+    assert plain.approximateSize() == 11;
+    assert low.repNulled() && low.size() == 11;
+    assert Math.abs(low.approximateSize() - 5000) < 250 : low;
+    LimitedSizeIntSet all = LimitedSizeIntSet.merge(10, Arrays.asList(low, high, plain));
+    assert all.repNulled();
+    assert Math.abs(all.approximateSize() - 10000) < 500 : all;
+    LimitedSizeIntSet copy = all.clone();
+    for (int i=0; i<10000; i++) {
+      copy.add(-i - 1);
+    }
+    assert Math.abs(all.approximateSize() - 10000) < 500 : all;
+    assert Math.abs(copy.approximateSize() - 20000) < 1000 : copy;
+
+    LimitedSizeSet<String> small = new LimitedSizeSet<String>(100);
+    LimitedSizeSet<String> big = new LimitedSizeSet<String>(50);
+    small.enableOverflowSketch(10);
+    big.enableOverflowSketch(10);
+    for (int i=0; i<60; i++) {
+      small.add("s" + i);
+    }
+    for (int i=0; i<1000; i++) {
+      big.add("s" + i);
+    }
+    assert ! small.repNulled() && small.approximateSize() == 60;
+    small.addAll(big);
+    assert small.repNulled() && small.size() == 101;
+    assert Math.abs(small.approximateSize() - 1000) < 100 : small;
+  }
+
+  private static void lsls_lsds_test() {
+    for (int max : new int[] { 5, 100 }) {
+      LimitedSizeLongSet ls = new LimitedSizeLongSet(max);
+      LimitedSizeDoubleSet ds = new LimitedSizeDoubleSet(max);
+      for (int rep=0; rep<2; rep++) {
+        for (int i=0; i<max-2; i++) {
+          ls.add(((long) i) << 40);
+          ds.add((i + 1) / 3.0);
+        }
+      }
+      ds.add(Double.NaN);
+      ds.add(Double.NaN);
+      ds.add(0.0);
+      ls.add(-1L);
+      assert ls.size() == max-1 && ds.size() == max;
+      assert ls.contains(1L << 40) && ! ls.contains(1L) && ls.contains(-1L);
+      assert ds.contains(1 / 3.0) && ds.contains(Double.NaN) && ! ds.contains(-0.0);
+
+      LimitedSizeLongSet ls2 = new LimitedSizeLongSet(max);
+      ls2.add(Long.MAX_VALUE);
+      LimitedSizeLongSet lmerged = LimitedSizeLongSet.merge(max, Arrays.asList(ls, ls2));
+      assert lmerged.size() == max && lmerged.contains(Long.MAX_VALUE);
+      LimitedSizeDoubleSet dclone = ds.clone();
+      ds.add(-0.0);
+      assert ds.repNulled() && ds.size() == max+1;
+      assert ! dclone.repNulled() && ! dclone.contains(-0.0);
+      dclone.addAll(ds);
+      assert dclone.repNulled();
+    }
+  }
+
   public static void testLimitedSizeSet() {
     for (int i=1; i<10; i++) {
       lsis_test(i);
     }
     lss_with_null_test();
+    lss_indexed_test();
+    lss_sketch_test();
+    lsls_lsds_test();
+  }
+
+  public static void testConcurrentLimitedSizeSet() throws InterruptedException {
+    final ConcurrentLimitedSizeSet<Integer> small = new ConcurrentLimitedSizeSet<Integer>(100);
+    final ConcurrentLimitedSizeSet<Integer> big = new ConcurrentLimitedSizeSet<Integer>(100);
+    Thread[] threads = new Thread[8];
+    for (int t=0; t<threads.length; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+          public void run() {
+            for (int i=0; i<50; i++) {
+              small.add((i + id) % 50);
+            }
+            for (int i=0; i<200; i++) {
+              big.add(i * (id + 1));
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assert small.size() == 50 : small;
+    for (int i=0; i<50; i++) {
+      assert small.contains(i);
+    }
+    assert ! small.contains(50);
+    LimitedSizeSet<Integer> copy = small.toLimitedSizeSet();
+    assert copy.size() == 50 && copy.contains(49);
+    assert big.repNulled() && big.size() == 101;
+    small.add(null);
+    assert small.contains(null) && small.size() == 51;
+
+    List<LimitedSizeSet<? extends Integer>> parts = new ArrayList<LimitedSizeSet<? extends Integer>>();
+    for (int i=0; i<100; i++) {
+      LimitedSizeSet<Integer> part = new LimitedSizeSet<Integer>(10);
+      for (int j=0; j<3; j++) {
+        part.add(i + j);
+      }
+      parts.add(part);
+    }
+    java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+    try {
+      LimitedSizeSet<Integer> merged = LimitedSizeSet.merge(500, parts, pool);
+      assert merged.size() == 102 : merged;
+      for (int i=0; i<102; i++) {
+        assert merged.contains(i);
+      }
+      assert LimitedSizeSet.merge(50, parts, pool).repNulled();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public static void testRandomSelector() {
+    Integer[] elts = new Integer[100];
+    for (int i=0; i<elts.length; i++) {
+      elts[i] = i;
+    }
+    // Each element should be selected about trials * 10 / 100 times.
+    int trials = 2000;
+    int[] byArray = new int[elts.length];
+    int[] byIterator = new int[elts.length];
+    int[] byAccept = new int[elts.length];
+    Random r = new Random(20261015);
+    for (int t=0; t<trials; t++) {
+      RandomSelector<Integer> s1 = new RandomSelector<Integer>(10, r, true);
+      s1.acceptAll(elts);
+      RandomSelector<Integer> s2 = new RandomSelector<Integer>(10, r, true);
+      s2.acceptAll(Arrays.asList(elts).iterator());
+      RandomSelector<Integer> s3 = new RandomSelector<Integer>(10, r, true);
+      for (Integer elt : elts) {
+        s3.accept(elt);
+      }
+      assert s1.getValues().size() == 10;
+      assert new HashSet<Integer>(s1.getValues()).size() == 10;
+      for (Integer i : s1.getValues()) { byArray[i]++; }
+      for (Integer i : s2.getValues()) { byIterator[i]++; }
+      for (Integer i : s3.getValues()) { byAccept[i]++; }
+    }
+    for (int i=0; i<elts.length; i++) {
+      assert byArray[i] > 120 && byArray[i] < 280 : i + ": " + byArray[i];
+      assert byIterator[i] > 120 && byIterator[i] < 280 : i + ": " + byIterator[i];
+      assert byAccept[i] > 120 && byAccept[i] < 280 : i + ": " + byAccept[i];
+    }
+
+    // Fewer elements than the sample size:  all are kept.
+    RandomSelector<Integer> small = new RandomSelector<Integer>(200, r, true);
+    small.acceptAll(elts);
+    assert small.getValues().size() == 100;
+
+    // Merging samples of unequal parts of the input
+    int[] byMerge = new int[elts.length];
+    for (int t=0; t<trials; t++) {
+      boolean skip = (t % 2 == 0);
+      RandomSelector<Integer> s1 = new RandomSelector<Integer>(10, r, skip);
+      RandomSelector<Integer> s2 = new RandomSelector<Integer>(10, r, skip);
+      RandomSelector<Integer> s3 = new RandomSelector<Integer>(10, r, skip);
+      s1.acceptAll(Arrays.copyOfRange(elts, 0, 5));
+      s2.acceptAll(Arrays.copyOfRange(elts, 5, 35));
+      s3.acceptAll(Arrays.copyOfRange(elts, 35, 80));
+      s1.merge(s2);
+      s1.merge(s3);
+      s1.acceptAll(Arrays.copyOfRange(elts, 80, 100));
+      assert s1.getObserved() == 100;
+      assert new HashSet<Integer>(s1.getValues()).size() == 10;
+      for (Integer i : s1.getValues()) { byMerge[i]++; }
+    }
+    for (int i=0; i<elts.length; i++) {
+      assert byMerge[i] > 120 && byMerge[i] < 280 : i + ": " + byMerge[i];
+    }
+
+    List<Integer> big = new ArrayList<Integer>();
+    for (int i=0; i<100000; i++) {
+      big.add(i);
+    }
+    java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+    try {
+      RandomSelector<Integer> all = RandomSelector.select(1000, big, r, pool);
+      assert all.getObserved() == 100000;
+      List<Integer> sample = all.getValues();
+      assert new HashSet<Integer>(sample).size() == 1000;
+      int low = 0;
+      for (Integer i : sample) {
+        if (i < 50000) {
+          low++;
+        }
+      }
+      assert low > 400 && low < 600 : low;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public static void testWeightedRandomSelector() {
+    Random r = new Random(20261015);
+    int trials = 4000;
+    // Element i has weight i+1, so is selected with probability (i+1)/10.
+    int[] counts = new int[4];
+    int[] mergedCounts = new int[4];
+    int[] multiCounts = new int[8];
+    Partitioner<Integer,Integer> parity = new Partitioner<Integer,Integer>() {
+        public Integer assignToBucket(Integer i) { return i % 2; }
+      };
+    for (int t=0; t<trials; t++) {
+      RandomSelector<Integer> s = new RandomSelector<Integer>(1, r);
+      RandomSelector<Integer> s1 = new RandomSelector<Integer>(1, r);
+      RandomSelector<Integer> s2 = new RandomSelector<Integer>(1, r);
+      MultiRandSelector<Integer> m = new MultiRandSelector<Integer>(1, r, parity);
+      for (int i=0; i<4; i++) {
+        s.accept(i, i + 1);
+        (i < 2 ? s1 : s2).accept(i, i + 1);
+      }
+      for (int i=0; i<8; i++) {
+        m.accept(i, i + 1);
+      }
+      s1.merge(s2);
+      counts[s.getValues().get(0)]++;
+      mergedCounts[s1.getValues().get(0)]++;
+      for (Iterator<Integer> itor = m.valuesIter(); itor.hasNext(); ) {
+        multiCounts[itor.next()]++;
+      }
+    }
+    for (int i=0; i<4; i++) {
+      double expected = trials * (i + 1) / 10.0;
+      assert Math.abs(counts[i] - expected) < expected * 0.15 : i + ": " + counts[i];
+      assert Math.abs(mergedCounts[i] - expected) < expected * 0.15 : i + ": " + mergedCounts[i];
+    }
+    // Within the even bucket, weights are 1, 3, 5, 7.
+    for (int i=0; i<8; i+=2) {
+      double expected = trials * (i + 1) / 16.0;
+      assert Math.abs(multiCounts[i] - expected) < expected * 0.2 : i + ": " + multiCounts[i];
+    }
+
+    // A long stream with one heavy element
+    int heavy = 0;
+    for (int t=0; t<100; t++) {
+      RandomSelector<Integer> s = new RandomSelector<Integer>(5, r);
+      for (int i=0; i<100000; i++) {
+        s.accept(i, (i == 54321) ? 1e6 : 1.0);
+      }
+      assert s.getValues().size() == 5;
+      if (s.getValues().contains(54321)) {
+        heavy++;
+      }
+    }
+    assert heavy >= 95 : heavy;
+
+    RandomSelector<Integer> unweighted = new RandomSelector<Integer>(5, r);
+    unweighted.accept(1);
+    try {
+      unweighted.accept(2, 1.0);
+      assert false;
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public static void testSpillingMultiRandSelector() throws IOException {
+    Random r = new Random(20261015);
+    Partitioner<Integer,Integer> mod100 = new Partitioner<Integer,Integer>() {
+        public Integer assignToBucket(Integer i) { return i % 100; }
+      };
+    File dir = File.createTempFile("spill", "");
+    boolean created = dir.delete() && dir.mkdir();
+    assert created;
+
+    // Interleaved buckets, so that every bucket is spilled many times.
+    // With only 2 buckets in memory, valuesIter() must split the spill
+    // file, more than once for some buckets.
+    MultiRandSelector<Integer> m = new MultiRandSelector<Integer>(10, r, mod100);
+    m.spillToDisk(2, dir);
+    for (int i=0; i<100000; i++) {
+      m.accept(i);
+    }
+    assert m.values().size() == 2;
+    assert dir.list().length == 1;
+    int[] perBucket = new int[100];
+    // Elements of a bucket are selected uniformly:  as often from the
+    // first half of the stream as from the second.
+    int early = 0;
+    Set<Integer> seen = new HashSet<Integer>();
+    for (Iterator<Integer> itor = m.valuesIter(); itor.hasNext(); ) {
+      Integer i = itor.next();
+      assert seen.add(i) : i;
+      perBucket[i % 100]++;
+      if (i < 50000) {
+        early++;
+      }
+    }
+    for (int b=0; b<100; b++) {
+      assert perBucket[b] == 10 : b + ": " + perBucket[b];
+    }
+    assert early > 400 && early < 600 : early;
+    // Iterating does not change the selection, and deletes its own files.
+    assert m.values().size() == 2;
+    assert dir.list().length == 1;
+    m.close();
+    assert dir.list().length == 0;
+
+    try {
+      m.spillToDisk(10, null);
+      assert false;
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // Buckets compared by identity cannot be spilled.
+    Partitioner<Object,Object> identity = new Partitioner<Object,Object>() {
+        public Object assignToBucket(Object o) { return new StringBuilder(o.toString()); }
+      };
+    MultiRandSelector<Object> bad = new MultiRandSelector<Object>(1, r, identity);
+    bad.spillToDisk(1, dir);
+    bad.accept("a");
+    try {
+      bad.accept("b");
+      assert false;
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    bad.close();
+    boolean deleted = dir.delete();
+    assert deleted;
+  }
+
+  public static void testConcurrentMultiRandSelector() throws InterruptedException {
+    Partitioner<Integer,Integer> mod50 = new Partitioner<Integer,Integer>() {
+        public Integer assignToBucket(Integer i) { return (i < 0) ? null : i % 50; }
+      };
+    final ConcurrentMultiRandSelector<Integer> fixed
+      = new ConcurrentMultiRandSelector<Integer>(5, new Random(20261015), mod50);
+    final ConcurrentMultiRandSelector<Integer> all
+      = new ConcurrentMultiRandSelector<Integer>(1.0, new Random(20261015), mod50);
+    Thread[] threads = new Thread[8];
+    for (int t=0; t<threads.length; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+          public void run() {
+            for (int i=0; i<5000; i++) {
+              int elt = i * 8 + id;
+              fixed.accept(elt);
+              all.accept(elt);
+              fixed.accept(-1);
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assert fixed.values().size() == 50;
+    int[] perBucket = new int[50];
+    Set<Integer> seen = new HashSet<Integer>();
+    for (Iterator<Integer> itor = fixed.valuesIter(); itor.hasNext(); ) {
+      Integer i = itor.next();
+      assert seen.add(i) && i >= 0 && i < 40000 : i;
+      perBucket[i % 50]++;
+    }
+    for (int b=0; b<50; b++) {
+      assert perBucket[b] == 5 : b + ": " + perBucket[b];
+    }
+    for (RandomSelector<Integer> rs : fixed.values().values()) {
+      assert rs.getObserved() == 800;
+    }
+    // Every element is kept exactly once.
+    seen.clear();
+    for (Iterator<Integer> itor = all.valuesIter(); itor.hasNext(); ) {
+      assert seen.add(itor.next());
+    }
+    assert seen.size() == 40000;
   }
 
   // This cannot be static because it instantiates an inner class.
@@ -2192,6 +2961,226 @@ public final class TestPlume extends TestCase {
   public static void testWeakHasherMap() {
   }
 
+  public static void testConcurrentWeakHasherMap() throws InterruptedException {
+    // Keys are compared case-insensitively.
+    Hasher caseInsensitive = new Hasher() {
+        public int hashCode(Object o) { return ((String) o).toLowerCase().hashCode(); }
+        public boolean equals(Object o1, Object o2) { return ((String) o1).equalsIgnoreCase((String) o2); }
+      };
+    final ConcurrentWeakHasherMap<String,Integer> m
+      = new ConcurrentWeakHasherMap<String,Integer>(caseInsensitive);
+    String one = new String("one");
+    String two = new String("two");
+    assert m.put(one, 1) == null;
+    assert m.putIfAbsent(new String("ONE"), 100) == 1;
+    assert m.get("One") == 1;
+    assert m.containsKey("oNe");
+    assert m.put(two, 2) == null;
+    assert m.replace("TWO", 2, 22);
+    assert m.get("two") == 22;
+    assert m.remove("TWO", 2) == false;
+    assert m.size() == 2;
+    assert m.keySet().contains(one);
+    assert m.remove("ONE") == 1;
+    assert m.get("one") == null;
+
+    // Iterator.remove removes the entry last returned, even after hasNext.
+    ConcurrentWeakHasherMap<String,Integer> it_map = new ConcurrentWeakHasherMap<String,Integer>();
+    String[] it_keys = { "a", "b", "c", "d" };
+    for (int i=0; i<it_keys.length; i++) {
+      it_map.put(it_keys[i], i);
+    }
+    Set<String> removed = new HashSet<String>();
+    for (Iterator<Map.Entry<String,Integer>> itor = it_map.entrySet().iterator(); itor.hasNext(); ) {
+      Map.Entry<String,Integer> e = itor.next();
+      if (itor.hasNext() && e.getValue() % 2 == 0) {
+        itor.remove();
+        removed.add(e.getKey());
+      }
+    }
+    assert ! removed.isEmpty();
+    for (String k : it_keys) {
+      assert it_map.containsKey(k) == ! removed.contains(k) : k;
+    }
+
+    // Many threads add the same keys; every thread sees the same values.
+    final String[] keys = new String[100];
+    for (int i=0; i<keys.length; i++) {
+      keys[i] = "key" + i;
+    }
+    Thread[] threads = new Thread[8];
+    for (int t=0; t<threads.length; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+          public void run() {
+            for (String key : keys) {
+              Integer old = m.putIfAbsent(key, id);
+              assert m.get(key.toUpperCase()).intValue() == ((old == null) ? id : old.intValue());
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assert m.size() == keys.length + 1; // plus "two"
+
+    two = null;
+    System.gc();
+    m.expungeStaleEntries();
+    for (Map.Entry<String,Integer> e : m.entrySet()) {
+      assert e.getKey().toLowerCase().startsWith("key") : e;
+    }
+  }
+
+  public static void testReferenceHasherMap() throws InterruptedException {
+    Hasher caseInsensitive = new Hasher() {
+        public int hashCode(Object o) { return ((String) o).toLowerCase().hashCode(); }
+        public boolean equals(Object o1, Object o2) { return ((String) o1).equalsIgnoreCase((String) o2); }
+      };
+
+    // Strong keys, weak values
+    ReferenceHasherMap<String,Object> wv
+      = new ReferenceHasherMap<String,Object>(ReferenceHasherMap.Strength.STRONG,
+                                              ReferenceHasherMap.Strength.WEAK,
+                                              caseInsensitive);
+    Object kept = new Object();
+    assert wv.put("kept", kept) == null;
+    assert wv.put("dropped", new Object()) == null;
+    assert wv.get("KEPT") == kept;
+    assert wv.getKey("KePt").equals("kept");
+    System.gc();
+    assert wv.get("dropped") == null;
+    assert ! wv.containsKey("dropped");
+    assert wv.size() == 1;
+    assert wv.remove("Kept") == kept;
+    assert wv.isEmpty();
+
+    // Weak keys and values, each key its own value:  a canonicalizing table
+    ReferenceHasherMap<String,String> canon
+      = new ReferenceHasherMap<String,String>(ReferenceHasherMap.Strength.WEAK,
+                                              ReferenceHasherMap.Strength.WEAK,
+                                              caseInsensitive);
+    String[] strings = new String[1000];
+    for (int i=0; i<strings.length; i++) {
+      strings[i] = "String" + i;
+      assert canon.put(strings[i], strings[i]) == null;
+    }
+    for (int i=0; i<strings.length; i++) {
+      assert canon.get(("string" + i).toUpperCase()) == strings[i];
+    }
+    assert canon.size() == strings.length;
+    int count = 0;
+    for (Map.Entry<String,String> e : canon.entrySet()) {
+      assert e.getKey() == e.getValue();
+      count++;
+    }
+    assert count == strings.length;
+    for (int i=0; i<strings.length; i+=2) {
+      strings[i] = null;
+    }
+    System.gc();
+    canon.expungeStaleEntries();
+    assert canon.size() == strings.length / 2;
+    assert canon.get("string1") == strings[1];
+
+    // Expunging during an iteration is a concurrent modification.
+    Iterator<Map.Entry<String,String>> itor = canon.entrySet().iterator();
+    itor.next();
+    for (int i=1; i<strings.length; i+=4) {
+      strings[i] = null;
+    }
+    System.gc();
+    Thread.sleep(100);          // let the cleared references be enqueued
+    canon.expungeStaleEntries();
+    try {
+      while (itor.hasNext()) {
+        itor.next();
+      }
+      assert false;
+    } catch (ConcurrentModificationException e) {
+      // expected
+    }
+
+    // Strong keys, soft values:  a cache; values survive an ordinary collection
+    ReferenceHasherMap<String,int[]> cache
+      = new ReferenceHasherMap<String,int[]>(ReferenceHasherMap.Strength.STRONG,
+                                             ReferenceHasherMap.Strength.SOFT,
+                                             null);
+    cache.put("a", new int[] { 1 });
+    assert cache.put("a", new int[] { 2 })[0] == 1;
+    assert cache.get("a")[0] == 2;
+    cache.clear();
+    assert cache.get("a") == null;
+  }
+
+  public static void testHasherMap() {
+    Hasher intArrayHasher = new Hasher() {
+        public int hashCode(Object o) { return Arrays.hashCode((int[]) o); }
+        public boolean equals(Object o1, Object o2) { return Arrays.equals((int[]) o1, (int[]) o2); }
+      };
+
+    HasherMap<int[],Integer> m = new HasherMap<int[],Integer>(intArrayHasher);
+    for (int i=0; i<1000; i++) {
+      assert m.put(new int[] { i, i+1 }, i) == null;
+    }
+    assert m.size() == 1000;
+    for (int i=0; i<1000; i++) {
+      assert m.get(new int[] { i, i+1 }) == i;
+    }
+    assert m.get(new int[] { 1, 1 }) == null;
+    int[] key = new int[] { 5, 6 };
+    assert m.put(key, 55) == 5;
+    assert m.getKey(key) != key; // the original key is kept
+    for (int i=0; i<1000; i+=2) {
+      assert m.remove(new int[] { i, i+1 }) != null;
+    }
+    assert m.size() == 500;
+    assert ! m.containsKey(new int[] { 0, 1 });
+    assert m.get(new int[] { 5, 6 }) == 55;
+    // Reinserting reuses the tombstones.
+    for (int i=0; i<1000; i+=2) {
+      assert m.put(new int[] { i, i+1 }, -i) == null;
+    }
+    int count = 0;
+    for (Iterator<Map.Entry<int[],Integer>> itor = m.entrySet().iterator(); itor.hasNext(); ) {
+      Map.Entry<int[],Integer> e = itor.next();
+      if (e.getKey()[0] % 4 == 0) {
+        itor.remove();
+      } else {
+        e.setValue(e.getKey()[0]);
+        count++;
+      }
+    }
+    assert m.size() == count && count == 750;
+    assert m.get(new int[] { 2, 3 }) == 2;
+    assert m.put(null, 0) == null;
+    assert m.get(null) == 0;
+    assert m.size() == 751;
+
+    HasherSet<int[]> s = new HasherSet<int[]>(intArrayHasher);
+    int[] a = new int[] { 1, 2, 3 };
+    assert s.add(a);
+    assert ! s.add(new int[] { 1, 2, 3 });
+    assert s.contains(new int[] { 1, 2, 3 });
+    assert s.get(new int[] { 1, 2, 3 }) == a;
+    assert ! s.contains(new int[] { 1, 2 });
+    assert s.remove(new int[] { 1, 2, 3 });
+    assert s.isEmpty();
+
+    // Intern's array hashers
+    HasherSet<double[]> ds = new HasherSet<double[]>(Intern.doubleArrayHasher());
+    assert ds.add(new double[] { 0.0, Double.NaN });
+    assert ds.contains(new double[] { -0.0, Double.NaN });
+    HasherMap<String[],Integer> sm = new HasherMap<String[],Integer>(Intern.stringArrayHasher());
+    sm.put(new String[] { "a", null }, 1);
+    assert sm.get(new String[] { "a", null }) == 1;
+    assert Intern.intArrayHasher().equals(new int[] { 1 }, new int[] { 1 });
+    assert Intern.longArrayHasher().hashCode(new long[] { 1 }) == Intern.longArrayHasher().hashCode(new long[] { 1 });
+    assert Intern.objectArrayHasher().equals(new Object[] { "x" }, new Object[] { "x" });
+  }
+
   /**
    * These tests could be much more thorough.  Basically all that is tested
    * is that identity is used rather than a normal hash.  The tests will
@@ -2238,6 +3227,141 @@ public final class TestPlume extends TestCase {
 
   }
 
+  public static void testOpenWeakIdentityHashMap() {
+    OpenWeakIdentityHashMap<String,Integer> m = new OpenWeakIdentityHashMap<String,Integer>();
+    String s1 = "one";
+    String s1a = new String(s1);
+    m.put(s1, 1);
+    m.put(s1a, 11);
+    m.put(null, 0);
+    assert m.get(s1) == 1;
+    assert m.get(s1a) == 11;
+    assert m.get(new String(s1)) == null;
+    assert m.get(null) == 0;
+    assert m.size() == 3;
+    assert m.remove(s1) == 1;
+    assert ! m.containsKey(s1);
+    assert m.get(s1a) == 11;
+
+    // Grow past several rehashes, removing half the keys along the way.
+    String[] keys = new String[5000];
+    for (int i=0; i<keys.length; i++) {
+      keys[i] = new String("k" + i);
+      m.put(keys[i], i);
+      if (i % 2 == 1) {
+        assert m.remove(keys[i-1]) == i-1;
+      }
+    }
+    for (int i=0; i<keys.length; i++) {
+      assert (i % 2 == 0) ? m.get(keys[i]) == null : m.get(keys[i]) == i;
+    }
+    assert m.size() == keys.length / 2 + 2;
+
+    int count = 0;
+    for (Iterator<Map.Entry<String,Integer>> itor = m.entrySet().iterator(); itor.hasNext(); ) {
+      Map.Entry<String,Integer> e = itor.next();
+      count++;
+      if (e.getKey() == null) {
+        itor.remove();
+      } else if (e.getKey() == s1a) {
+        e.setValue(111);
+      }
+    }
+    assert count == keys.length / 2 + 2;
+    assert ! m.containsKey(null);
+    assert m.get(s1a) == 111;
+
+    keys = null;
+    System.gc();
+    m.expungeStaleEntries();
+    assert m.size() >= 1 && m.size() <= 2501;
+  }
+
+  /**
+   * With an expunge budget, lookups still find every live key, and
+   * expunging all stale entries leaves only the live ones.
+   */
+  public static void testExpungeBudget() {
+    Object[] live = new Object[10];
+    WeakIdentityHashMap<Object,Integer> im = new WeakIdentityHashMap<Object,Integer>();
+    WeakHasherMap<Object,Integer> hm = new WeakHasherMap<Object,Integer>();
+    im.setExpungeBudget(1);
+    hm.setExpungeBudget(1);
+    for (int i=0; i<1000; i++) {
+      Object key = new Object();
+      if (i < live.length) {
+        live[i] = key;
+      }
+      im.put(key, i);
+      hm.put(key, i);
+    }
+    System.gc();
+    for (int i=0; i<live.length; i++) {
+      assert im.get(live[i]) == i;
+      assert hm.get(live[i]) == i;
+      hm.put(live[i], i);
+    }
+    im.expungeStaleEntries();
+    hm.expungeStaleEntries();
+    assert im.size() >= live.length && im.size() <= 1000;
+    assert hm.size() >= live.length && hm.size() <= 1000;
+  }
+
+  public static void testHashTableStatistics() {
+    Object[] live = new Object[10];
+    WeakIdentityHashMap<Object,Integer> im = new WeakIdentityHashMap<Object,Integer>();
+    WeakHasherMap<Object,Integer> hm = new WeakHasherMap<Object,Integer>();
+    assert im.statistics() == null;
+    assert hm.statistics() == null;
+    im.setStatisticsEnabled(true);
+    hm.setStatisticsEnabled(true);
+    for (int i=0; i<1000; i++) {
+      Object key = new Object();
+      if (i < live.length) {
+        live[i] = key;
+      }
+      im.put(key, i);
+      hm.put(key, i);
+    }
+    for (int i=0; i<live.length; i++) {
+      assert im.get(live[i]) == i;
+      assert hm.get(live[i]) == i;
+    }
+    assert im.get(new Object()) == null;
+    assert ! hm.containsKey(new Object());
+
+    HashTableStatistics[] snapshots = { im.statistics(), hm.statistics() };
+    for (HashTableStatistics stats : snapshots) {
+      assert stats.getHits() == live.length : stats;
+      assert stats.getMisses() == 1 : stats;
+      assert stats.getResizes() == 7 : stats; // 16 -> 2048
+      assert stats.getCapacity() == 2048 : stats;
+      assert stats.getSize() == 1000 : stats;
+      int entries = 0;
+      int buckets = 0;
+      int[] histogram = stats.getChainLengthHistogram();
+      for (int i=0; i<histogram.length; i++) {
+        entries += i * histogram[i];
+        buckets += histogram[i];
+      }
+      assert buckets == stats.getCapacity() : stats;
+      assert entries <= 1000 : stats;
+    }
+
+    System.gc();
+    im.expungeStaleEntries();
+    hm.expungeStaleEntries();
+    for (HashTableStatistics stats : new HashTableStatistics[] { im.statistics(), hm.statistics() }) {
+      long sum = 0;
+      for (long n : stats.getExpungedPerCycle()) {
+        sum += n;
+      }
+      assert sum == stats.getTotalExpunged() : stats;
+      assert stats.getTotalExpunged() <= 1000 - live.length : stats;
+    }
+    assert im.get(live[0]) == 0;
+  }
+
   public static void testClassFileVersion() {
     // public static double [] versionNumbers(InputStream is)
     assert ClassFileVersion.versionNumbers(new ByteArrayInputStream(new byte[0])) == null;
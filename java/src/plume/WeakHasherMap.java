@@ -207,19 +207,119 @@ public final class WeakHasherMap<K,V> extends AbstractMap<K,V> implements Map<K,
     private ReferenceQueue<? super K> queue = new ReferenceQueue<K>();
 
 
-    /* Remove all invalidated entries from the map, that is, remove all entries
-       whose keys have been discarded.  This method should be invoked once by
-       each public mutator in this class.  We don't invoke this method in
-       public accessors because that can lead to surprising
-       ConcurrentModificationExceptions. */
-    @SuppressWarnings("unchecked")
+    /* The maximum number of invalidated entries that a mutator removes,
+       or 0 for no limit. */
+    private int expungeBudget = 0;
+
+    /* Statistics about this table, or null if statistics are disabled. */
+    private HashTableStatistics.Recorder stats = null;
+
+    /* The load factor of the HashMap, and an estimate of its capacity,
+       which it does not expose.  The capacity is maintained only while
+       statistics are enabled. */
+    private float loadFactor = 0.75f;
+    private int capacity = 16;
+
+
+    /* Remove invalidated entries from the map, that is, remove entries
+       whose keys have been discarded, up to the expunge budget.  This
+       method should be invoked once by each public mutator in this class.
+       We don't invoke this method in public accessors because that can
+       lead to surprising ConcurrentModificationExceptions. */
     private void processQueue() {
+	processQueue(expungeBudget);
+    }
+
+    /* Remove at most max invalidated entries, or all of them if max is 0. */
+    @SuppressWarnings("unchecked")
+    private void processQueue(int max) {
 	WeakKey wk;
-	while ((wk = (WeakKey)queue.poll()) != null) { // unchecked cast
-	    hash.remove(wk);
+	int expunged = 0;
+	while ((max == 0 || expunged++ < max)
+	       && (wk = (WeakKey)queue.poll()) != null) { // unchecked cast
+	    if (stats == null) {
+		hash.remove(wk);
+	    } else {
+		int before = hash.size();
+		hash.remove(wk);
+		if (hash.size() < before) stats.expunged();
+	    }
 	}
     }
 
+    /**
+     * Sets the maximum number of invalidated entries (entries whose keys
+     * have been discarded) that a single mutator removes.  By default
+     * there is no limit, so the first mutator after a large garbage
+     * collection removes every invalidated entry, which can take a long
+     * time.  With a limit, the work is spread over subsequent mutators
+     * instead, at the cost of invalidated entries occupying the table for
+     * longer.  Call {@link #expungeStaleEntries()} to remove them all at
+     * a convenient time.
+     *
+     * @param  budget  the maximum number of invalidated entries that a
+     *                 mutator removes, or 0 for no limit
+     *
+     * @throws IllegalArgumentException  If budget is negative
+     */
+    public void setExpungeBudget(int budget) {
+	if (budget < 0)
+	    throw new IllegalArgumentException("Illegal expunge budget: " + budget);
+	expungeBudget = budget;
+    }
+
+    /**
+     * Removes every invalidated entry, regardless of the expunge budget.
+     *
+     * @see #setExpungeBudget(int)
+     */
+    public void expungeStaleEntries() {
+	processQueue(0);
+    }
+
+    /**
+     * Enables or disables the collection of statistics about this table;
+     * see {@link #statistics()}.  Enabling statistics discards any that
+     * were previously collected.  When statistics are disabled, as they
+     * are by default, collecting them costs almost nothing.
+     *
+     * @param  enabled  whether to collect statistics
+     */
+    public void setStatisticsEnabled(boolean enabled) {
+	if (enabled) {
+	    stats = new HashTableStatistics.Recorder();
+	    while (hash.size() > capacity * loadFactor)
+		capacity <<= 1;
+	} else {
+	    stats = null;
+	}
+    }
+
+    /**
+     * Returns a snapshot of the statistics about this table, or null if
+     * statistics are disabled.  Because the underlying HashMap does not
+     * expose its internals, the capacity is estimated, the resize time is
+     * that of the insertions that caused a resize, and the chain-length
+     * histogram is that of the keys' hash codes distributed over a table
+     * of the estimated capacity, as HashMap distributes them.  Takes time
+     * linear in the capacity of the table.
+     *
+     * @return  a snapshot of the statistics, or null
+     * @see #setStatisticsEnabled(boolean)
+     */
+    public HashTableStatistics statistics() {
+	if (stats == null) return null;
+	int[] buckets = new int[capacity];
+	for (WeakKey wk : hash.keySet()) {
+	    int h = (wk == null) ? 0 : wk.hash;
+	    buckets[(h ^ (h >>> 16)) & (capacity - 1)]++;
+	}
+	int[] chains = new int[HashTableStatistics.Recorder.HISTOGRAM_SIZE];
+	for (int length : buckets)
+	    HashTableStatistics.Recorder.addChain(chains, length);
+	return stats.snapshot(chains, hash.size(), capacity);
+    }
+
 
     /* -- Constructors -- */
 
@@ -238,6 +338,8 @@ public final class WeakHasherMap<K,V> extends AbstractMap<K,V> implements Map<K,
      */
     public WeakHasherMap(int initialCapacity, float loadFactor) {
 	hash = new HashMap<WeakKey,V>(initialCapacity, loadFactor);
+	this.loadFactor = loadFactor;
+	this.capacity = tableSizeFor(initialCapacity);
     }
 
     /**
@@ -253,6 +355,15 @@ public final class WeakHasherMap<K,V> extends AbstractMap<K,V> implements Map<K,
      */
     public WeakHasherMap(int initialCapacity) {
 	hash = new HashMap<WeakKey,V>(initialCapacity);
+	this.capacity = tableSizeFor(initialCapacity);
+    }
+
+    /* The capacity of a HashMap created with the given initial capacity. */
+    private static int tableSizeFor(int initialCapacity) {
+	int result = 1;
+	while (result < initialCapacity && result < (1 << 30))
+	    result <<= 1;
+	return result;
     }
 
     /**
@@ -304,7 +415,11 @@ public final class WeakHasherMap<K,V> extends AbstractMap<K,V> implements Map<K,
     /*@Pure*/ public boolean containsKey(Object key) {
         @SuppressWarnings("unchecked")
         K kkey = (K) key;
-	return hash.containsKey(WeakKeyCreate(kkey));
+	if (stats == null)
+	    return hash.containsKey(WeakKeyCreate(kkey));
+	boolean result = hash.containsKey(WeakKeyCreate(kkey));
+	stats.lookup(result);
+	return result;
     }
 
 
@@ -320,7 +435,12 @@ public final class WeakHasherMap<K,V> extends AbstractMap<K,V> implements Map<K,
     /*@Pure*/ public /*@Nullable*/ V get(Object key) {  // type of argument is Object, not K
         @SuppressWarnings("unchecked")
         K kkey = (K) key;
-	return hash.get(WeakKeyCreate(kkey));
+	if (stats == null)
+	    return hash.get(WeakKeyCreate(kkey));
+	WeakKey wk = WeakKeyCreate(kkey);
+	V result = hash.get(wk);
+	stats.lookup(result != null || hash.containsKey(wk));
+	return result;
     }
 
     /**
@@ -339,7 +459,16 @@ public final class WeakHasherMap<K,V> extends AbstractMap<K,V> implements Map<K,
      */
     public V put(K key, V value) {
 	processQueue();
-	return hash.put(WeakKeyCreate(key, queue), value);
+	if (stats == null)
+	    return hash.put(WeakKeyCreate(key, queue), value);
+	long start = System.nanoTime();
+	V result = hash.put(WeakKeyCreate(key, queue), value);
+	if (hash.size() > capacity * loadFactor && capacity < (1 << 30)) {
+	    // This insertion made the HashMap resize.
+	    capacity <<= 1;
+	    stats.resized(System.nanoTime() - start);
+	}
+	return result;
     }
 
     /**
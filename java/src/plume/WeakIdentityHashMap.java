@@ -185,6 +185,18 @@ public class WeakIdentityHashMap<K,V>
      */
     private volatile int modCount;
 
+    /**
+     * The maximum number of stale entries that a single operation
+     * expunges, or 0 for no limit.
+     */
+    private int expungeBudget = 0;
+
+    /**
+     * Accumulates statistics about this table, or null if statistics
+     * are disabled.
+     */
+    private /*@Nullable*/ HashTableStatistics.Recorder stats = null;
+
     /**
      * Constructs a new, empty <tt>WeakIdentityHashMap</tt> with the
      * given initial capacity and the given load factor.
@@ -307,13 +319,86 @@ public class WeakIdentityHashMap<K,V>
     }
 
     /**
-     * Expunge stale entries from the table.
+     * Sets the maximum number of stale entries (entries whose keys have
+     * been garbage-collected) that a single operation on this map
+     * removes.  By default there is no limit, so the first operation after
+     * a large garbage collection removes every stale entry, which can
+     * take a long time.  With a limit, the work is spread over subsequent
+     * operations instead, at the cost of stale entries occupying the
+     * table for longer.  Call {@link #expungeStaleEntries()} to remove
+     * them all at a convenient time.
+     *
+     * @param budget the maximum number of stale entries that an
+     *        operation removes, or 0 for no limit
+     * @throws IllegalArgumentException if budget is negative
+     */
+    public void setExpungeBudget(int budget) {
+        if (budget < 0)
+            throw new IllegalArgumentException("Illegal expunge budget: "+
+                                               budget);
+        expungeBudget = budget;
+    }
+
+    /**
+     * Removes every stale entry, regardless of the expunge budget.
+     *
+     * @see #setExpungeBudget(int)
+     */
+    public void expungeStaleEntries() {
+        expungeUpTo(0);
+    }
+
+    /**
+     * Enables or disables the collection of statistics about this table;
+     * see {@link #statistics()}.  Enabling statistics discards any that
+     * were previously collected.  When statistics are disabled, as they
+     * are by default, collecting them costs almost nothing.
+     *
+     * @param enabled whether to collect statistics
+     */
+    public void setStatisticsEnabled(boolean enabled) {
+        stats = enabled ? new HashTableStatistics.Recorder() : null;
+    }
+
+    /**
+     * Returns a snapshot of the statistics about this table, or null if
+     * statistics are disabled.  Takes time linear in the capacity of the
+     * table, to compute the chain-length histogram.
+     *
+     * @return a snapshot of the statistics, or null
+     * @see #setStatisticsEnabled(boolean)
+     */
+    public /*@Nullable*/ HashTableStatistics statistics() {
+        if (stats == null)
+            return null;
+        int[] chains = new int[HashTableStatistics.Recorder.HISTOGRAM_SIZE];
+        for (Entry<K,V> e : table) {
+            int length = 0;
+            for ( ; e != null; e = e.next)
+                length++;
+            HashTableStatistics.Recorder.addChain(chains, length);
+        }
+        return stats.snapshot(chains, size, table.length);
+    }
+
+    /**
+     * Expunge stale entries from the table, up to the expunge budget.
+     */
+    /*@SideEffectFree*/ private void expungeWithinBudget() {
+        expungeUpTo(expungeBudget);
+    }
+
+    /**
+     * Expunge at most max stale entries from the table, or all of them if
+     * max is 0.
      */
     @SuppressWarnings("purity") // actually has side effects due to weak pointers
-    /*@SideEffectFree*/ private void expungeStaleEntries() {
+    /*@SideEffectFree*/ private void expungeUpTo(int max) {
 	Entry<K,V> e;
+        int expunged = 0;
         // These types look wrong to me.
-        while ( (e = (Entry<K,V>) queue.poll()) != null) { // unchecked cast
+        while ((max == 0 || expunged++ < max)
+               && (e = (Entry<K,V>) queue.poll()) != null) { // unchecked cast
             int h = e.hash;
             int i = indexFor(h, table.length);
 
@@ -329,6 +414,8 @@ public class WeakIdentityHashMap<K,V>
                     e.next = null;  // Help GC
                     e.value = null; //  "   "
                     size--;
+                    if (stats != null)
+                        stats.expunged();
                     break;
                 }
                 prev = p;
@@ -341,7 +428,7 @@ public class WeakIdentityHashMap<K,V>
      * Return the table after first expunging stale entries
      */
     /*@Pure*/ private /*@Nullable*/ Entry<K,V>[] getTable() {
-        expungeStaleEntries();
+        expungeWithinBudget();
         return table;
     }
 
@@ -349,12 +436,13 @@ public class WeakIdentityHashMap<K,V>
      * Returns the number of key-value mappings in this map.
      * This result is a snapshot, and may not reflect unprocessed
      * entries that will be removed before next attempted access
-     * because they are no longer referenced.
+     * because they are no longer referenced.  Removes every stale
+     * entry, regardless of the expunge budget.
      */
     /*@Pure*/ public int size() {
         if (size == 0)
             return 0;
-        expungeStaleEntries();
+        expungeUpTo(0);
         return size;
     }
 
@@ -389,10 +477,15 @@ public class WeakIdentityHashMap<K,V>
         int index = indexFor(h, tab.length);
         Entry<K,V> e = tab[index];
         while (e != null) {
-            if (e.hash == h && eq(k, e.get()))
+            if (e.hash == h && eq(k, e.get())) {
+                if (stats != null)
+                    stats.lookup(true);
                 return e.value;
+            }
             e = e.next;
         }
+        if (stats != null)
+            stats.lookup(false);
         return null;
     }
 
@@ -420,6 +513,8 @@ public class WeakIdentityHashMap<K,V>
         Entry<K,V> e = tab[index];
         while (e != null && !(e.hash == h && eq(k, e.get())))
             e = e.next;
+        if (stats != null)
+            stats.lookup(e != null);
         return e;
     }
 
@@ -481,6 +576,7 @@ public class WeakIdentityHashMap<K,V>
             return;
         }
 
+        long start = (stats == null) ? 0 : System.nanoTime();
         @SuppressWarnings("unchecked")
         Entry<K,V>[] newTable = (Entry<K,V>[]) new Entry[newCapacity];
         transfer(oldTable, newTable);
@@ -494,10 +590,12 @@ public class WeakIdentityHashMap<K,V>
         if (size >= threshold / 2) {
             threshold = (int)(newCapacity * loadFactor);
         } else {
-            expungeStaleEntries();
+            expungeWithinBudget();
             transfer(newTable, oldTable);
             table = oldTable;
         }
+        if (stats != null)
+            stats.resized(System.nanoTime() - start);
     }
 
     /** Transfer all entries from src to dest tables */
@@ -512,6 +610,8 @@ public class WeakIdentityHashMap<K,V>
                     e.next = null;  // Help GC
                     e.value = null; //  "   "
                     size--;
+                    if (stats != null)
+                        stats.expunged();
                 } else {
                     int i = indexFor(e.hash, dest.length);
                     e.next = dest[i];